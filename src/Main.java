@@ -4,6 +4,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.StringReader;
+import java.util.Arrays;
 
 import controller.CollageController;
 import controller.CollageControllerImpl;
@@ -22,6 +23,7 @@ import controller.NewGuiController;
  * accepted in the format of .txt files where you enter -file script.txt.
  * If the user chooses text based version of the program, type -text into the command line
  * If none are supplied, the user will be asked to use the GUI instead.
+ * Any of these may be preceded by -parallel N to apply filters on N threads.
  */
 public final class Main {
 
@@ -30,12 +32,25 @@ public final class Main {
    * user.
    *
    * @param args Needs to be supplied as a .txt file. If there is none, input is taken directly
-   *             from user typing.
+   *             from user typing. May start with -parallel N to set the number of threads.
    */
   public static void main(String[] args) throws IOException {
     StringBuilder builder = new StringBuilder();
-    CollageModelFactory factory = new CollageModelImplFactory();
-    CollageModel model = factory.createCollageModel();
+    int parallelism = 1;
+    if (args.length >= 2 && args[0].equals("-parallel")) {
+      try {
+        parallelism = Integer.parseInt(args[1]);
+      } catch (NumberFormatException e) {
+        parallelism = 0;
+      }
+      args = Arrays.copyOfRange(args, 2, args.length);
+    }
+    if (parallelism < 1) {
+      CollageView errorView = new CollageViewImpl(
+              new CollageModelImplFactory().createCollageModel());
+      errorView.renderMessage("Invalid number of threads for -parallel.");
+      return;
+    }
     CollageView simpleView;
     GuiView guiView;
     NewGuiController guiController;
@@ -47,6 +62,11 @@ public final class Main {
       contents.append(s);
     }
 
+    // the GUI only applies a filter once its result is displayed, saved or placed on a layer
+    CollageModelFactory factory = new CollageModelImplFactory(parallelism,
+            contents.toString().equals(""));
+    CollageModel model = factory.createCollageModel();
+
     // accepts argument from user - GUI
     if (contents.toString().equals("")) {
       guiView = new JavaSwingView(900, 800);
@@ -1,13 +1,16 @@
 package controller;
 
 import java.awt.image.BufferedImage;
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
 
 import model.CollageModel;
-import model.Pixel;
+import model.FileType;
+import model.ImageUtil;
 import view.CollageView;
 
 import javax.imageio.ImageIO;
@@ -91,6 +94,12 @@ public class CollageControllerImpl
             case "save":
               this.save();
               break;
+            case "save-raw":
+              this.saveRaw();
+              break;
+            case "save-image":
+              this.saveImage();
+              break;
             case "red-component":
               this.redComponent();
               break;
@@ -127,6 +136,21 @@ public class CollageControllerImpl
             case "difference":
               this.difference();
               break;
+            case "pipeline":
+              this.pipeline();
+              break;
+            case "levels":
+              this.levels();
+              break;
+            case "curves":
+              this.curves();
+              break;
+            case "lut":
+              this.lut();
+              break;
+            case "bake-lut":
+              this.bakeLut();
+              break;
             case "q":
               quit = true;
               this.view.renderMessage("Quitting, please wait...");
@@ -169,7 +193,14 @@ public class CollageControllerImpl
             + "darken-multiply name destination increment\n"
             + "brighten-screen name destination increment\n"
             + "difference name destination\n"
+            + "pipeline name destination filter-1 filter-2 ...\n"
+            + "levels name destination black white gamma\n"
+            + "curves name destination input-1 output-1 input-2 output-2 ...\n"
+            + "lut name destination lut-path\n"
+            + "bake-lut name lut-path size filter-1 filter-2 ...\n"
             + "save path name\n"
+            + "save-raw path name\n"
+            + "save-image path\n"
             + "q";
     this.view.renderMessage(menu);
   }
@@ -199,25 +230,25 @@ public class CollageControllerImpl
 
   @Override
   public void load(String imagePath, String imageName) throws IllegalArgumentException {
-    if (imagePath.endsWith(".ppm")) {
+    if (imagePath.toLowerCase().endsWith(".ppm")) {
       try {
-        this.model.loadPPM(imagePath);
+        this.model.load(imagePath, imageName);
         return;
-      } catch (IllegalArgumentException e) {
+      } catch (FileNotFoundException e) {
         throw new IllegalArgumentException(e.getMessage());
       }
     }
 
     try {
-      loadImage = ImageIO.read(new FileInputStream(imagePath));
+      loadImage = ImageIO.read(new File(imagePath));
     } catch (IOException e) {
       throw new IllegalArgumentException("Cant read file.");
     }
+    if (loadImage == null) {
+      throw new IllegalArgumentException("Cant read file.");
+    }
 
-    int maxValue = 0;
-    Pixel[][] pixels = new Pixel[model.getHeight()][model.getWidth()];
-
-    this.model.addImage(imageName, pixels, maxValue, loadImage);
+    this.model.addImage(imageName, null, 0, loadImage);
   }
 
   @Override
@@ -259,6 +290,21 @@ public class CollageControllerImpl
     this.view.renderMessage(String.format("%s was saved as %s", name, path));
   }
 
+  @Override
+  public void saveRaw() throws IOException {
+    String path = this.resPath + sc.next();
+    String name = sc.next();
+    this.model.save(path, name, FileType.raw);
+    this.view.renderMessage(String.format("%s was saved as raw %s", name, path));
+  }
+
+  @Override
+  public void saveImage() throws IOException {
+    String path = this.resPath + sc.next();
+    ImageUtil.savePPM(this.model.getComposite(), path);
+    this.view.renderMessage(String.format("The project was saved as %s", path));
+  }
+
   @Override
   public void redComponent() throws IllegalArgumentException, IOException {
     String name = sc.next();
@@ -356,7 +402,7 @@ public class CollageControllerImpl
     String name = sc.next();
     String dest = sc.next();
     double increment = parseDouble(sc.next());
-    this.model.darkenMultiply(name, dest);
+    this.model.darkenMultiply(name, dest, increment);
     this.view.renderMessage(
             String.format("%s was saved as a darkened-multiply image " +
                             "called %s and darkened by %s",
@@ -368,7 +414,7 @@ public class CollageControllerImpl
     String name = sc.next();
     String dest = sc.next();
     double increment = parseDouble(sc.next());
-    this.model.brightenScreen(name, dest);
+    this.model.brightenScreen(name, dest, increment);
     this.view.renderMessage(
             String.format("%s was saved as a brightened-screen image " +
                             "called %s and brightened by %s",
@@ -385,4 +431,94 @@ public class CollageControllerImpl
                             "called %s",
                     name, dest));
   }
+
+  @Override
+  public void pipeline() throws IOException {
+    String name = sc.next();
+    String dest = sc.next();
+    List<String> filters = new ArrayList<>();
+    for (String filter : sc.nextLine().split(",|\\s+")) {
+      if (!filter.isEmpty()) {
+        filters.add(filter);
+      }
+    }
+    this.model.pipeline(name, dest, filters);
+    this.view.renderMessage(
+            String.format("%s was saved as %s after applying %s",
+                    name, dest, String.join(", ", filters)));
+  }
+
+  @Override
+  public void levels() throws IOException {
+    String name = sc.next();
+    String dest = sc.next();
+    int black = Integer.parseInt(sc.next());
+    int white = Integer.parseInt(sc.next());
+    double gamma = parseDouble(sc.next());
+    this.model.levels(name, dest, black, white, gamma);
+    this.view.renderMessage(
+            String.format("%s was saved as %s with levels %s to %s and gamma %s",
+                    name, dest, black, white, gamma));
+  }
+
+  @Override
+  public void curves() throws IOException {
+    String name = sc.next();
+    String dest = sc.next();
+    List<Integer> values = new ArrayList<>();
+    for (String value : sc.nextLine().split(",|\\s+")) {
+      if (!value.isEmpty()) {
+        values.add(Integer.parseInt(value));
+      }
+    }
+    if (values.size() % 2 != 0) {
+      throw new IllegalArgumentException("Every curve input needs an output.");
+    }
+    int[] inputs = new int[values.size() / 2];
+    int[] outputs = new int[values.size() / 2];
+    for (int i = 0; i < inputs.length; i++) {
+      inputs[i] = values.get(2 * i);
+      outputs[i] = values.get(2 * i + 1);
+    }
+    this.model.curves(name, dest, inputs, outputs);
+    this.view.renderMessage(
+            String.format("%s was saved as %s after applying a curve through %s points",
+                    name, dest, inputs.length));
+  }
+
+  @Override
+  public void lut() throws IOException {
+    String name = sc.next();
+    String dest = sc.next();
+    String path = sc.next();
+    try {
+      this.model.applyLut(name, dest, path);
+    } catch (IOException e) {
+      this.view.renderMessage("Unable to read the LUT " + path);
+      return;
+    }
+    this.view.renderMessage(
+            String.format("%s was saved as %s after applying the LUT %s", name, dest, path));
+  }
+
+  @Override
+  public void bakeLut() throws IOException {
+    String name = sc.next();
+    String path = sc.next();
+    int size = Integer.parseInt(sc.next());
+    List<String> filters = new ArrayList<>();
+    for (String filter : sc.nextLine().split(",|\\s+")) {
+      if (!filter.isEmpty()) {
+        filters.add(filter);
+      }
+    }
+    try {
+      this.model.bakeLut(name, filters, size, path);
+    } catch (IOException e) {
+      this.view.renderMessage("Unable to write the LUT " + path);
+      return;
+    }
+    this.view.renderMessage(
+            String.format("%s was baked into the LUT %s", String.join(", ", filters), path));
+  }
 }
@@ -51,6 +51,18 @@ public interface CollageOperations {
    */
   void save() throws IOException;
 
+  /**
+   * Saves the image to the path as a raw (binary) ppm file.
+   * @throws IOException if the image cannot be transmitted to the path.
+   */
+  void saveRaw() throws IOException;
+
+  /**
+   * Saves the layers of the project, flattened into one image, as a ppm file.
+   * @throws IOException if the image cannot be transmitted to the path.
+   */
+  void saveImage() throws IOException;
+
   /**
    * Displays only the green channel of the pixel.
    * @throws IOException if view cannot be transmitted.
@@ -126,6 +138,37 @@ public interface CollageOperations {
    */
   void difference() throws IOException;
 
+  /**
+   * Applies the filters named on the rest of the line to an image in a single pass.
+   * @throws IOException if view cannot be transmitted.
+   */
+  void pipeline() throws IOException;
+
+  /**
+   * Adjusts the black point, white point and gamma of every channel of an image.
+   * @throws IOException if view cannot be transmitted.
+   */
+  void levels() throws IOException;
+
+  /**
+   * Maps every channel of an image through a curve given by pairs of input and output values
+   * on the rest of the line.
+   * @throws IOException if view cannot be transmitted.
+   */
+  void curves() throws IOException;
+
+  /**
+   * Grades an image with a 3D color lookup table from a .cube file.
+   * @throws IOException if view cannot be transmitted or the file cannot be read.
+   */
+  void lut() throws IOException;
+
+  /**
+   * Bakes the pointwise filters named on the rest of the line into a .cube file.
+   * @throws IOException if view cannot be transmitted or the file cannot be written.
+   */
+  void bakeLut() throws IOException;
+
   /**
    * Adds an image layer to the project.
    * This is done so that more images can be modified and added to create a more detailed collage.
@@ -0,0 +1,182 @@
+package model;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Holds the layers below and above the layer being edited, each flattened into one image, so
+ * redrawing part of the composite blends three surfaces however many layers there are. When a
+ * layer other than the active one changes, the flattened image on its side is blended again
+ * over just the changed area.
+ *
+ * <p>The layers below are flattened bottom first into premultiplied 8-bit pixels, the order the
+ * full composite uses, so the active layer lands on exactly the same pixels. The layers above
+ * are flattened with 16 bits per channel and rounded to 8 bits only once, after they are placed
+ * over the active layer. Blending every layer in turn rounds to 8 bits at each step instead, so
+ * where translucent layers sit above the active one a channel can differ from the full
+ * composite by one, or by two under a deep stack of translucent layers. The cached result is
+ * the closer of the two to blending without rounding. With no layers above, the result is the
+ * same as the full composite.
+ */
+final class ActiveLayerCache {
+  private final List<LayerImpl> stack;
+  private final int active;
+  private final int width;
+  private final WritableImage below;
+  // premultiplied alpha, red, green and blue of the layers above, 16 bits each, row by row
+  private final long[] above;
+
+  /**
+   * Flattens the layers on either side of the active layer.
+   * @param layers the layers, bottom first
+   * @param active the index of the layer being edited
+   * @param width the width of the layers in pixels
+   * @param height the height of the layers in pixels
+   */
+  ActiveLayerCache(List<LayerImpl> layers, int active, int width, int height) {
+    this.stack = new ArrayList<>(layers);
+    this.active = active;
+    this.width = width;
+    this.below = ImageUtil.createRaster("below", width, height, 255);
+    this.above = this.hasAbove() ? new long[width * height] : null;
+    Rectangle all = new Rectangle(0, 0, width, height);
+    this.flattenBelow(all);
+    if (this.hasAbove()) {
+      this.flattenAbove(all);
+    }
+  }
+
+  /**
+   * Returns whether this cache was built for the given stack and active layer.
+   * @param layers the layers, bottom first
+   * @param active the index of the layer being edited
+   * @return true if the layers and active layer are the same as when the cache was built
+   */
+  boolean isFor(List<LayerImpl> layers, int active) {
+    return this.active == active && this.stack.equals(layers);
+  }
+
+  /**
+   * Brings the flattened image on the side of the given layer up to date with a change to it.
+   * Changes to the active layer need no update.
+   * @param layer the index of the layer that changed
+   * @param area the area that changed
+   */
+  void update(int layer, Rectangle area) {
+    if (layer < this.active) {
+      this.flattenBelow(area);
+    } else if (layer > this.active) {
+      this.flattenAbove(area);
+    }
+  }
+
+  /**
+   * Blends part of a row of the whole stack: the layers below, the active layer, and the
+   * layers above.
+   * @param x the column of the first pixel
+   * @param y the row
+   * @param dest the array to write the premultiplied pixels into, from index 0
+   * @param scratch an array at least as long as the span
+   * @param length the number of pixels
+   */
+  void blend(int x, int y, int[] dest, int[] scratch, int length) {
+    this.below.getSpan(x, y, dest, 0, length);
+    this.stack.get(this.active).getSpan(x, y, scratch, 0, length);
+    Compositor.over(scratch, 0, dest, 0, length);
+    if (this.above == null) {
+      return;
+    }
+    int start = y * this.width + x;
+    for (int i = 0; i < length; i++) {
+      dest[i] = narrow(over(this.above[start + i], widen(dest[i])));
+    }
+  }
+
+  /**
+   * Blends part of a row of a range of layers, bottom to top, over transparent pixels.
+   * @param layers the layers, bottom first
+   * @param from the index of the lowest layer to blend
+   * @param to one more than the index of the highest layer to blend
+   * @param x the column of the first pixel
+   * @param y the row
+   * @param dest the array to write the premultiplied pixels into, from index 0
+   * @param scratch an array at least as long as the span
+   * @param length the number of pixels
+   */
+  static void blendLayers(List<LayerImpl> layers, int from, int to, int x, int y, int[] dest,
+                          int[] scratch, int length) {
+    Arrays.fill(dest, 0, length, 0);
+    for (int i = from; i < to; i++) {
+      layers.get(i).getSpan(x, y, scratch, 0, length);
+      Compositor.over(scratch, 0, dest, 0, length);
+    }
+  }
+
+  private boolean hasAbove() {
+    return this.active < this.stack.size() - 1;
+  }
+
+  // blends the layers below the active one into an area of the flattened image
+  private void flattenBelow(Rectangle area) {
+    int[] blended = new int[area.width];
+    int[] scratch = new int[area.width];
+    for (int y = area.y; y < area.y + area.height; y++) {
+      blendLayers(this.stack, 0, this.active, area.x, y, blended, scratch, area.width);
+      this.below.setSpan(area.x, y, blended, 0, area.width);
+    }
+  }
+
+  // blends the layers above the active one, with 16 bits per channel, into an area
+  private void flattenAbove(Rectangle area) {
+    int[] scratch = new int[area.width];
+    for (int y = area.y; y < area.y + area.height; y++) {
+      int start = y * this.width + area.x;
+      Arrays.fill(this.above, start, start + area.width, 0);
+      for (int i = this.active + 1; i < this.stack.size(); i++) {
+        this.stack.get(i).getSpan(area.x, y, scratch, 0, area.width);
+        for (int j = 0; j < area.width; j++) {
+          this.above[start + j] = over(widen(scratch[j]), this.above[start + j]);
+        }
+      }
+    }
+  }
+
+  // a premultiplied 8-bit pixel with each channel scaled to 16 bits
+  private static long widen(int pargb) {
+    long wide = 0;
+    for (int shift = 24; shift >= 0; shift -= 8) {
+      wide = (wide << 16) | ((pargb >>> shift) & 0xFF) * 257L;
+    }
+    return wide;
+  }
+
+  // a 16-bit pixel with each channel rounded to 8 bits
+  private static int narrow(long wide) {
+    int pargb = 0;
+    for (int shift = 48; shift >= 0; shift -= 16) {
+      pargb = (pargb << 8) | (int) ((((wide >>> shift) & 0xFFFF) * 255 + 32767) / 65535);
+    }
+    return pargb;
+  }
+
+  // places one premultiplied 16-bit pixel over another
+  private static long over(long src, long dest) {
+    long alpha = src >>> 48;
+    if (alpha == 0xFFFF) {
+      return src;
+    }
+    if (alpha == 0) {
+      return dest;
+    }
+    long keep = 0xFFFF - alpha;
+    long result = 0;
+    for (int shift = 48; shift >= 0; shift -= 16) {
+      long channel = ((src >>> shift) & 0xFFFF)
+              + (((dest >>> shift) & 0xFFFF) * keep + 32767) / 65535;
+      result |= Math.min(channel, 0xFFFF) << shift;
+    }
+    return result;
+  }
+}
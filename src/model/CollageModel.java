@@ -4,6 +4,7 @@ import java.awt.image.BufferedImage;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Holds all the functions the user can apply. Includes adding images and layers, loading
@@ -31,9 +32,10 @@ public interface CollageModel extends CollageViewModel {
   void addLayer();
 
   /**
-   * Sets the filter to be applied to the whole image.
+   * Sets the filter applied to a layer when the layers are composited. The layer's pixels are
+   * kept, so the filter can be changed or removed later.
    * @param layernumber - the number of the layer
-   * @param filterOption - the option
+   * @param filterOption - the option, "normal" to remove the filter
    */
   void setFilter(int layernumber, String filterOption);
 
@@ -47,10 +49,12 @@ public interface CollageModel extends CollageViewModel {
   void addImageToLayer(int layernumber, String imageName, int x, int y);
 
   /**
-   * Adds an image onto a project without, disregarding layer.
+   * Adds an image onto a project without, disregarding layer. The image is the size of the
+   * canvas, copied from the top left corner of the loaded image.
    * @param imageName - the name of the image
-   * @param pixels - the pixel array
-   * @param maxValue - the maximum rgb value
+   * @param pixels - unused, may be null
+   * @param maxValue - unused, images read through ImageIO have a max value of 255
+   * @param loadImage - the loaded image
    */
   void addImage(String imageName, Pixel[][] pixels, int maxValue, BufferedImage loadImage);
 
@@ -73,6 +77,17 @@ public interface CollageModel extends CollageViewModel {
    */
   void save(String path, String name) throws IOException, IllegalStateException;
 
+  /**
+   * Saves the image to the path in the given format: plain ppm for ppm, raw ppm for raw.
+   *
+   * @param path the path to the image
+   * @param name the name to refer to
+   * @param type the format to save in
+   * @throws IOException if the image cannot be transmitted to the path
+   * @throws IllegalArgumentException if the image does not exist or the format is not supported
+   */
+  void save(String path, String name, FileType type) throws IOException, IllegalArgumentException;
+
   /**
    * Displays only the green channel of the pixel.
    *
@@ -173,6 +188,75 @@ public interface CollageModel extends CollageViewModel {
    */
   void brightenScreen(String name, String dest);
 
+  /**
+   * Darkens an image by converting a Pixel's RGB value to an HSL value then multiplying the
+   * L value by the given increment. White pixels are left unchanged.
+   * @param name the name of the image
+   * @param dest what to call the image
+   * @param increment what to multiply the L value by
+   */
+  void darkenMultiply(String name, String dest, double increment);
+
+  /**
+   * Brightens an image by converting a Pixel's RGB value to an HSL value then screening the
+   * L value with the given increment. White pixels are left unchanged.
+   * @param name the name of the image
+   * @param dest what to call the image
+   * @param increment what to screen the L value with
+   */
+  void brightenScreen(String name, String dest, double increment);
+
+  /**
+   * Adjusts the levels of every channel of an image. Values at or below black become 0, values
+   * at or above white become 255, and values in between are stretched and gamma corrected.
+   * @param name the name of the image
+   * @param dest what to call the image
+   * @param black the value mapped to 0
+   * @param white the value mapped to 255
+   * @param gamma above 1 to lighten the midtones, below 1 to darken them
+   * @throws IllegalArgumentException if the image does not exist or the levels are invalid
+   */
+  void levels(String name, String dest, int black, int white, double gamma)
+          throws IllegalArgumentException;
+
+  /**
+   * Maps every channel of an image through a curve that passes through the given points and is
+   * straight between them.
+   * @param name the name of the image
+   * @param dest what to call the image
+   * @param inputs the input value of each point, increasing
+   * @param outputs the output value of each point
+   * @throws IllegalArgumentException if the image does not exist or the points are invalid
+   */
+  void curves(String name, String dest, int[] inputs, int[] outputs)
+          throws IllegalArgumentException;
+
+  /**
+   * Grades an image with a 3D color lookup table read from a .cube file.
+   * @param name the name of the image
+   * @param dest what to call the image
+   * @param lutPath the path of the .cube file
+   * @throws IllegalArgumentException if the image does not exist or the file is not a valid
+   *                                  3D .cube file
+   * @throws IOException if the file cannot be read
+   */
+  void applyLut(String name, String dest, String lutPath)
+          throws IllegalArgumentException, IOException;
+
+  /**
+   * Bakes a chain of pointwise filters, as they would be applied to the given image, into a 3D
+   * color lookup table and writes it as a .cube file.
+   * @param name the name of the image the filters would be applied to
+   * @param filters the names of the filters, applied first to last
+   * @param size the number of grid points along each axis, 2-256
+   * @param lutPath the path of the .cube file to write
+   * @throws IllegalArgumentException if a filter does not exist or is not pointwise, or the
+   *                                  size is out of range
+   * @throws IOException if the file cannot be written
+   */
+  void bakeLut(String name, List<String> filters, int size, String lutPath)
+          throws IllegalArgumentException, IOException;
+
   /**
    * Differences an image by calculating the difference between the current image and the
    * composite image below it.
@@ -182,6 +266,16 @@ public interface CollageModel extends CollageViewModel {
 
   void difference(String name, String dest);
 
+  /**
+   * Applies a chain of filters to an image in a single pass and saves only the final result.
+   * Filters are named as in the text commands, e.g. red-component or brighten-luma.
+   * @param name the name of the image
+   * @param dest what to call the image
+   * @param filters the names of the filters, applied first to last
+   * @throws IllegalArgumentException if the image or a filter does not exist
+   */
+  void pipeline(String name, String dest, List<String> filters) throws IllegalArgumentException;
+
   /**
    * Returns the height of the image.
    * @return the height in pixels
@@ -194,6 +288,26 @@ public interface CollageModel extends CollageViewModel {
    */
   int getWidth();
 
+  /**
+   * Sets the layer being edited. While a layer is active, the layers below it and the layers
+   * above it are each kept flattened, so redrawing the composite after an edit blends three
+   * images however many layers there are. The flattened images are updated when other layers
+   * change. The layers above are flattened at higher precision and rounded once, so under
+   * translucent layers a channel can differ from the composite without an active layer by one,
+   * or by two under many of them.
+   * @param layerNumber the number of the layer, or -1 to stop keeping flattened layers
+   * @throws IllegalArgumentException if there is no such layer
+   */
+  void setActiveLayer(int layerNumber) throws IllegalArgumentException;
+
+  /**
+   * Returns the layers flattened into one image, bottom layer first. The image is kept between
+   * calls, and only the areas of the layers changed since the last call are blended again.
+   * @return the composite image, shared with the model
+   * @throws IllegalStateException if no project has been created
+   */
+  Image getComposite() throws IllegalStateException;
+
   /**
    * Returns the hashmap of layers containing images which contain pixels.
    * @return a hashmap of layers
@@ -201,8 +315,9 @@ public interface CollageModel extends CollageViewModel {
   ArrayList<LayerImpl> getLayers();
 
   /**
-   * Loads a PPM image.
+   * Loads a PPM image and saves it under the name of the file without its extension.
    * @param imagePath the path of the image.
+   * @throws IllegalArgumentException if the file does not exist or is not a valid PPM image
    */
-  void loadPPM(String imagePath);
+  void loadPPM(String imagePath) throws IllegalArgumentException;
 }
@@ -1,16 +1,14 @@
 package model;
 
 
-import java.awt.Color;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.Scanner;
 
 /**
  * Implements CollageModel, holds all the functions the user can apply.
@@ -18,26 +16,73 @@ import java.util.Scanner;
  * and saving composite images.
  */
 public class CollageModelImpl implements CollageModel {
-  private final Map<String, Image> images;
+  /**
+   * The number of pixels at or below which a filter is applied on the calling thread.
+   */
+  public static final int DEFAULT_SEQUENTIAL_CUTOFF = 1 << 16;
+
+  /**
+   * The default total size in bytes of the filter results the model remembers.
+   */
+  public static final long DEFAULT_CACHE_BUDGET = 64L << 20;
+
+  private final ImageRegistry images;
   private final ArrayList<LayerImpl> layers;
   private final List<String> filterOptions;
   private int width;
   private int height;
   private boolean projectMade;
+  private final FilterExecutor executor;
+  private boolean lazy;
+  private long canvasBudget;
+  private boolean tiledLayers;
+  // the layers flattened, brought up to date by getComposite
+  private WritableImage composite;
+  // the layer being edited, or -1, and the flattened layers around it
+  private int activeLayer;
+  private ActiveLayerCache activeCache;
 
   /**
    * Constructs a model object, initializes images and layers and the filter options.
+   * Filters are applied on the calling thread.
    */
   public CollageModelImpl() {
-    this.images = new HashMap<>();
+    this(1);
+  }
+
+  /**
+   * Constructs a model object that applies filters to bands of rows on the given number of
+   * threads.
+   * @param parallelism the number of threads to use, 1 to apply filters on the calling thread
+   * @throws IllegalArgumentException if parallelism is less than 1
+   */
+  public CollageModelImpl(int parallelism) throws IllegalArgumentException {
+    this(parallelism, DEFAULT_SEQUENTIAL_CUTOFF);
+  }
+
+  /**
+   * Constructs a model object that applies filters to bands of rows on the given number of
+   * threads.
+   * @param parallelism the number of threads to use, 1 to apply filters on the calling thread
+   * @param sequentialCutoff the number of pixels at or below which a band of rows is not split
+   * @throws IllegalArgumentException if parallelism or sequentialCutoff is less than 1
+   */
+  public CollageModelImpl(int parallelism, int sequentialCutoff)
+          throws IllegalArgumentException {
+    this.executor = new FilterExecutor(parallelism, sequentialCutoff,
+            new FilterCache(DEFAULT_CACHE_BUDGET));
+    this.images = new ImageRegistry();
+    this.images.setCache(this.executor.getCache());
+    this.canvasBudget = Runtime.getRuntime().maxMemory();
     this.layers = new ArrayList<>();
+    this.activeLayer = -1;
     this.filterOptions = new ArrayList<>();
     projectMade = false;
 
     filterOptions.add("normal");
     filterOptions.add("red-component");
     filterOptions.add("green-component");
-    filterOptions.add("green-component");
+    filterOptions.add("blue-component");
     filterOptions.add("brighten-value");
     filterOptions.add("brighten-intensity");
     filterOptions.add("brighten-luma");
@@ -51,6 +96,50 @@ public class CollageModelImpl implements CollageModel {
   }
 
 
+  /**
+   * Sets whether filters are applied when they are called or only once the pixels of the
+   * resulting image are needed, for example to save, display or place it on a layer.
+   * @param lazy true to defer filters until their result is used
+   */
+  public void setLazy(boolean lazy) {
+    this.lazy = lazy;
+  }
+
+  /**
+   * Sets the largest size in bytes of one layer of a new project kept in memory. Layers of
+   * larger projects are stored as tiles in memory-mapped files. Large layers in memory are stored
+   * outside the Java heap, so this defaults to the maximum heap size, which is also the JVM's
+   * default limit on direct memory.
+   * @param bytes the budget in bytes
+   * @throws IllegalArgumentException if the budget is negative
+   */
+  public void setCanvasBudget(long bytes) throws IllegalArgumentException {
+    if (bytes < 0) {
+      throw new IllegalArgumentException("Canvas budget cannot be negative.");
+    }
+    this.canvasBudget = bytes;
+  }
+
+  /**
+   * Sets the largest total size of the images the model keeps in memory. Beyond it, the least
+   * recently used images are written to a scratch directory and read back when they are next
+   * used. Images are also written out early when the heap is nearly full.
+   * @param bytes the ceiling in bytes
+   * @throws IllegalArgumentException if the ceiling is negative
+   */
+  public void setMemoryCeiling(long bytes) throws IllegalArgumentException {
+    this.images.setCeiling(bytes);
+  }
+
+  /**
+   * Returns the cache of filter results, which can be used to read its hit, miss and eviction
+   * counts or change its byte budget.
+   * @return the filter cache
+   */
+  public FilterCache getFilterCache() {
+    return this.executor.getCache();
+  }
+
   /**
    * Creates a new project to place layers and images ontop of.
    * @param width - the width in pixels of the project
@@ -59,11 +148,14 @@ public class CollageModelImpl implements CollageModel {
    */
   @Override
   public void createNewProject(int width, int height) throws IllegalArgumentException {
-    if (width <= 100 || height <= 100 || width >= 1000 || height >= 1000) {
+    if (width <= 100 || height <= 100) {
       throw new IllegalArgumentException("Invalid height/width.");
     }
+    this.tiledLayers = 4L * width * height > this.canvasBudget;
     this.width = width;
     this.height = height;
+    this.composite = null;
+    this.activeCache = null;
 
     projectMade = true;
   }
@@ -73,60 +165,35 @@ public class CollageModelImpl implements CollageModel {
    */
   @Override
   public void addLayer() {
-    layers.add(new LayerImpl(width, height));
+    // the first layer is the white background, and the layers above it start transparent
+    layers.add(new LayerImpl(width, height, tiledLayers, layers.isEmpty() ? 0xFFFFFFFF : 0));
   }
 
   /**
-   * Sets the filter to be applied to the whole image.
+   * Sets the filter applied to a layer when the layers are composited. The layer's pixels are
+   * not changed, and only the area of the composite being redrawn is filtered.
    * @param layerNumber - the number of the layer
-   * @param filterOption - the option
+   * @param filterOption - the option, "normal" to remove the filter
    */
   @Override
   public void setFilter(int layerNumber, String filterOption) {
-    if (layers.size() == 0) {
+    if (layerNumber < 0 || layerNumber >= layers.size()) {
       throw new IllegalArgumentException("Unable to find layer: " + layerNumber);
     }
     if (!filterOptions.contains(filterOption.toLowerCase())) {
       throw new IllegalArgumentException("Unable to find filter option: " + filterOption);
     }
-    switch (filterOption) {
-      case "normal":
-        break;
-      case "red-component":
-        this.redComponent("", "");
-        break;
-      case "green-component":
-        this.greenComponent("", "");
-        break;
-      case "blue-component":
-        this.blueComponent("", "");
-        break;
-      case "brighten-value":
-        this.brightenValue("", "");
-        break;
-      case "brighten-intensity":
-        this.brightenIntensity("", "");
-        break;
-      case "brighten-luma":
-        this.brightenLuma("", "");
-        break;
-      case "darken-value":
-        this.darkenValue("", "");
-        break;
-      case "darken-intensity":
-        this.darkenIntensity("", "");
-        break;
-      case "darken-luma":
-        this.darkenLuma("", "");
-        break;
-      default:
-        throw new IllegalArgumentException("Please enter a valid command");
+    LayerImpl layer = layers.get(layerNumber);
+    if (filterOption.equalsIgnoreCase("normal")) {
+      layer.setFilter(null);
+    } else {
+      layer.setFilter(PixelKernels.forName(filterOption));
     }
   }
 
   @Override
   public void addImageToLayer(int layernumber, String imageName, int x, int y) {
-    if (layernumber > layers.size()) {
+    if (layernumber < 0 || layernumber >= layers.size()) {
       throw new IllegalArgumentException("Unable to find layer: " + layernumber);
     }
     if (!images.containsKey(imageName)) {
@@ -135,27 +202,13 @@ public class CollageModelImpl implements CollageModel {
     if (x < 0 || y < 0) {
       throw new IllegalArgumentException("Invalid x or y position");
     }
-    layers.get(layernumber).placeImage(images.get(imageName), x, y);
+    layers.get(layernumber).placeImage(imageName, images.get(imageName), x, y);
   }
 
   @Override
   public void addImage(String imageName, Pixel[][] pixels, int maxValue, BufferedImage loadImage) {
-    maxValue = 0;
-    pixels = new Pixel[this.getHeight()][this.getWidth()];
-
-    for (int col = 0; col < this.getWidth(); col++) {
-      for (int row = 0; row < this.getHeight(); row++) {
-        Color color = new Color(loadImage.getRGB(col, row));
-        int localMax = Math.max(color.getGreen(), Math.max(color.getRed(), color.getBlue()));
-        if (localMax > maxValue) {
-          maxValue = localMax;
-        }
-
-        pixels[row][col] = new PixelImpl(new Color(color.getRed(), color.getGreen(),
-                color.getBlue()));
-      }
-    }
-    this.images.put(imageName, new ImageImpl(imageName, pixels, maxValue));
+    this.images.put(imageName, ImageConverter.fromBufferedImage(imageName, loadImage,
+            this.getWidth(), this.getHeight()));
   }
 
   @Override
@@ -185,199 +238,200 @@ public class CollageModelImpl implements CollageModel {
     ImageUtil.savePPM(this.getImage(name), path);
   }
 
+  @Override
+  public void save(String path, String name, FileType type) throws IOException,
+          IllegalArgumentException {
+    ImageUtil.save(this.getImage(name), path, type);
+  }
+
   @Override
   public void redComponent(String name, String dest) throws IllegalArgumentException {
-    Func<Image, Integer, Integer, Pixel> red = (original, i, j) ->
-            new PixelImpl(new Color(original.getPixel(i, j).getBlue(), 0 , 0));
-    this.applyToImage(name, dest, red);
+    this.applyToImage(name, dest, "red-component");
   }
 
   @Override
   public void greenComponent(String name, String dest) throws IllegalArgumentException {
-    Func<Image, Integer, Integer, Pixel> green = (original, i, j) ->
-            new PixelImpl(new Color(0, original.getPixel(i, j).getGreen(), 0));
-    this.applyToImage(name, dest, green);
+    this.applyToImage(name, dest, "green-component");
   }
 
   @Override
   public void blueComponent(String name, String dest) throws IllegalArgumentException {
-    Func<Image, Integer, Integer, Pixel> blue = (original, i, j) ->
-            new PixelImpl(new Color(0, 0, original.getPixel(i, j).getBlue()));
-    this.applyToImage(name, dest, blue);
+    this.applyToImage(name, dest, "blue-component");
   }
 
   @Override
   public void brightenValue(String name, String dest) {
-    Func<Image, Integer, Integer, Pixel> value = (original, i, j) -> {
-      Pixel p = original.getPixel(i, j);
-      int maxVal = p.getValue();
-      return new PixelImpl(new Color(
-              Math.min(p.getMaxRGB(), p.getRed() + maxVal),
-              Math.min(p.getMaxRGB(), p.getGreen() + maxVal),
-              Math.min(p.getMaxRGB(), p.getBlue() + maxVal)));
-    };
-    this.applyToImage(name, dest, value);
+    this.applyToImage(name, dest, "brighten-value");
   }
 
   @Override
   public void brightenLuma(String name, String dest)  {
-    Func<Image, Integer, Integer, Pixel> luma = (original, i, j) -> {
-      Pixel p = original.getPixel(i, j);
-      int lumaVal = (int) (0.2126 * p.getRed()
-              + 0.7152 * p.getGreen() + 0.0722 * p.getBlue());
-      return new PixelImpl(new Color(
-              Math.min(p.getMaxRGB(), p.getRed() + lumaVal),
-              Math.min(p.getMaxRGB(), p.getGreen() + lumaVal),
-              Math.min(p.getMaxRGB(), p.getBlue() + lumaVal)));
-    };
-    this.applyToImage(name, dest, luma);
+    this.applyToImage(name, dest, "brighten-luma");
   }
 
   @Override
   public void brightenIntensity(String name, String dest) {
-    Func<Image, Integer, Integer, Pixel> intensity = (original, i, j) -> {
-      Pixel p = original.getPixel(i, j);
-      int intensityVal = ((p.getRed() + p.getBlue() + p.getGreen()) / 3);
-      return new PixelImpl(new Color(
-              Math.min(p.getMaxRGB(), p.getRed() + intensityVal),
-              Math.min(p.getMaxRGB(), p.getGreen() + intensityVal),
-              Math.min(p.getMaxRGB(), p.getBlue() + intensityVal)));
-    };
-    this.applyToImage(name, dest, intensity);
+    this.applyToImage(name, dest, "brighten-intensity");
   }
 
   @Override
   public void darkenValue(String name, String dest) {
-    Func<Image, Integer, Integer, Pixel> value = (original, i, j) -> {
-      Pixel p = original.getPixel(i, j);
-      int maxVal = p.getValue();
-      return new PixelImpl(new Color(
-              Math.max(0, p.getRed() - maxVal),
-              Math.max(0, p.getGreen() - maxVal),
-              Math.max(0, p.getBlue() - maxVal)));
-    };
-    this.applyToImage(name, dest, value);
+    this.applyToImage(name, dest, "darken-value");
   }
 
   @Override
   public void darkenLuma(String name, String dest) {
-    Func<Image, Integer, Integer, Pixel> luma = (original, i, j) -> {
-      Pixel p = original.getPixel(i, j);
-      int lumaVal = (int) (0.2126 * p.getRed()
-              + 0.7152 * p.getGreen() + 0.0722 * p.getBlue());
-      return new PixelImpl(new Color(
-              Math.max(0, p.getRed() - lumaVal),
-              Math.max(0, p.getGreen() - lumaVal),
-              Math.max(0, p.getBlue() - lumaVal)));
-    };
-    this.applyToImage(name, dest, luma);
+    this.applyToImage(name, dest, "darken-luma");
   }
 
   @Override
   public void darkenIntensity(String name, String dest) {
-    Func<Image, Integer, Integer, Pixel> intensity = (original, i, j) -> {
-      Pixel p = original.getPixel(i, j);
-      int intensityVal = ((p.getRed() + p.getBlue() + p.getGreen()) / 3);
-      return new PixelImpl(new Color(
-              Math.max(0, p.getRed() - intensityVal),
-              Math.max(0, p.getGreen() - intensityVal),
-              Math.max(0, p.getBlue() - intensityVal)));
-    };
-    this.applyToImage(name, dest, intensity);
+    this.applyToImage(name, dest, "darken-intensity");
   }
 
-
   @Override
   public void darkenMultiply(String name, String dest) {
-    Func<Image, Integer, Integer, Pixel> darkenMultiply = (original, i, j) -> {
-      Pixel p = original.getPixel(i, j);
-      HashMap<String, Double> hsl = p.convertRGBtoHSL();
-      int dL = findDl(original, i, j, name);
-      hsl.replace("l", hsl.get("l") * dL);
-      return convertHSLtoRGB(hsl.get("h"), hsl.get("s"), hsl.get("l"));
-    };
+    this.applyToImage(name, dest, "darken-multiply");
+  }
+
+  @Override
+  public void brightenScreen(String name, String dest) {
+    this.applyToImage(name, dest, "brighten-screen");
+  }
 
-    this.applyToImage(name, dest, darkenMultiply);
+  @Override
+  public void darkenMultiply(String name, String dest, double increment) {
+    this.applyToImage(name, dest, Arrays.asList("darken-multiply", increment),
+            PixelKernels.darkenMultiply(increment));
   }
 
-  /**
-   * Convers an HSL representation where.
-   * <ul>
-   * <li> 0 &lt;= H &lt; 360</li>
-   * <li> 0 &lt;= S &lt;= 1</li>
-   * <li> 0 &lt;= L &lt;= 1</li>
-   * </ul>
-   * into an RGB representation where each component is in the range 0-1
-   * @param hue hue of the HSL representation
-   * @param saturation saturation of the HSL representation
-   * @param lightness lightness of the HSL representation
-   */
-  private Pixel convertHSLtoRGB(double hue, double saturation, double lightness) {
-    double r = convertFn(hue, saturation, lightness, 0) * 255;
-    double g = convertFn(hue, saturation, lightness, 8) * 255;
-    double b = convertFn(hue, saturation, lightness, 4) * 255;
-    return new PixelImpl(new Color((int) r, (int) g, (int) b));
+  @Override
+  public void brightenScreen(String name, String dest, double increment) {
+    this.applyToImage(name, dest, Arrays.asList("brighten-screen", increment),
+            PixelKernels.brightenScreen(increment));
   }
 
-  /*
-   * Helper method that performs the translation from the HSL polygonal
-   * model to the more familiar RGB model
-   */
-  private double convertFn(double hue, double saturation, double lightness, int n) {
-    double k = (n + (hue / 30)) % 12;
-    double a  = saturation * Math.min(lightness, 1 - lightness);
+  @Override
+  public void levels(String name, String dest, int black, int white, double gamma)
+          throws IllegalArgumentException {
+    ToneCurve curve = ToneCurve.levels(black, white, gamma);
+    this.applyToImage(name, dest, curve, curve);
+  }
 
-    return lightness - a * Math.max(-1, Math.min(k - 3, Math.min(9 - k, 1)));
+  @Override
+  public void curves(String name, String dest, int[] inputs, int[] outputs)
+          throws IllegalArgumentException {
+    ToneCurve curve = ToneCurve.curve(inputs, outputs);
+    this.applyToImage(name, dest, curve, curve);
   }
 
   @Override
-  public void brightenScreen(String name, String dest) {
-    Func<Image, Integer, Integer, Pixel> brightenScreen = (original, i, j) -> {
-      Pixel p = original.getPixel(i, j);
-      HashMap<String, Double> hsl = p.convertRGBtoHSL();
-      int dL = findDl(original, i, j, name);
-      hsl.replace("l", 1 - ((1 - hsl.get("l")) * (1 - dL)));
-      return convertHSLtoRGB(hsl.get("h"), hsl.get("s"), hsl.get("l"));
-    };
-    this.applyToImage(name, dest, brightenScreen);
+  public void applyLut(String name, String dest, String lutPath)
+          throws IllegalArgumentException, IOException {
+    if (lutPath == null) {
+      throw new IllegalArgumentException("Arguments are null");
+    }
+    ColorLut lut = ColorLut.load(lutPath);
+    this.applyToImage(name, dest, lut, lut);
+  }
+
+  @Override
+  public void bakeLut(String name, List<String> filters, int size, String lutPath)
+          throws IllegalArgumentException, IOException {
+    if (filters == null || lutPath == null) {
+      throw new IllegalArgumentException("Arguments are null");
+    }
+    List<RowKernel> kernels = new ArrayList<>();
+    for (String filter : filters) {
+      kernels.add(this.kernelFor(filter, name));
+    }
+    RowKernel chain = FusedKernel.of(kernels);
+    if (!(chain instanceof PixelKernel)) {
+      throw new IllegalArgumentException("Only pointwise filters can be baked into a LUT.");
+    }
+    ColorLut.bake((PixelKernel) chain, size).write(lutPath);
   }
 
   @Override
   public void difference(String name, String dest) {
-    Func<Image, Integer, Integer, Pixel> difference = (original, i, j) -> {
-      Pixel p = original.getPixel(i, j);
-      Color currentColor = p.getColor();
-      LayerImpl bottomLayer = layers.get(layers.size() - 1);
-      Image bottomImg = bottomLayer.getImages().get(name);
+    this.applyToImage(name, dest, "difference");
+  }
+
+  @Override
+  public void pipeline(String name, String dest, List<String> filters)
+          throws IllegalArgumentException {
+    if (filters == null) {
+      throw new IllegalArgumentException("Arguments are null");
+    }
+    List<RowKernel> kernels = new ArrayList<>();
+    List<Object> operations = new ArrayList<>();
+    for (String filter : filters) {
+      kernels.add(this.kernelFor(filter, name));
+      operations.add(this.operationFor(filter, name));
+    }
+    this.applyToImage(name, dest, operations, FusedKernel.of(kernels));
+  }
+
+  /**
+   * Returns what identifies the filter with the given command name in the filter cache: the
+   * name itself, or a list of the name and the values the filter depends on.
+   * @param filter - the name of the filter, e.g. red-component
+   * @param name - the name of the image the filter is applied to
+   * @return the operation
+   */
+  private Object operationFor(String filter, String name) {
+    switch (filter.toLowerCase()) {
+      case "darken-multiply":
+      case "brighten-screen":
+        return Arrays.asList(filter.toLowerCase(), (double) this.findDl(name));
+      case "difference":
+        return Arrays.asList(filter.toLowerCase(), this.findBottomImage(name));
+      default:
+        return filter.toLowerCase();
+    }
+  }
 
-      int rDiff = Math.abs(currentColor.getRed() - bottomImg.getPixel(i, j).getRed());
-      int gDiff = Math.abs(currentColor.getGreen() - bottomImg.getPixel(i, j).getGreen());
-      int bDiff = Math.abs(currentColor.getBlue() - bottomImg.getPixel(i, j).getBlue());
-      return new PixelImpl(new Color(rDiff, gDiff, bDiff));
-    };
-    this.applyToImage(name, dest, difference);
+  /**
+   * Returns the kernel for the filter with the given command name.
+   * @param filter - the name of the filter, e.g. red-component
+   * @param name - the name of the image the filter is applied to
+   * @return the kernel
+   * @throws IllegalArgumentException if there is no such filter
+   */
+  private RowKernel kernelFor(String filter, String name) throws IllegalArgumentException {
+    switch (filter.toLowerCase()) {
+      case "darken-multiply":
+        return PixelKernels.darkenMultiply(this.findDl(name));
+      case "brighten-screen":
+        return PixelKernels.brightenScreen(this.findDl(name));
+      case "difference":
+        return PixelKernels.difference(this.findBottomImage(name));
+      default:
+        return PixelKernels.forName(filter);
+    }
   }
 
   /**
-   * Finds the dL value for the composite image underneath.
-   * @param original - the original image
-   * @param x - the x value of the pixel position
-   * @param y - the y value of the pixel position
+   * Finds the dL value for the composite image underneath. White pixels always use a dL of 1.
    * @param name - the name of the image underneath
    * @return the dL value as an int
+   * @throws IllegalArgumentException if the image is not on the bottom layer
    */
-  private int findDl(Image original, int x, int y, String name) {
-    Pixel p = original.getPixel(x, y);
-    LayerImpl bottomLayer = layers.get(layers.size() - 1);
-    Image bottomImg = bottomLayer.getImages().get(name);
-    int dL;
-    if (p.getBlue() == 255 && p.getRed() == 255 && p.getGreen() == 255) {
-      dL = 1;
-    }
-    else {
-      dL = bottomImg.getMaxValue() / 255;
+  private int findDl(String name) {
+    return this.findBottomImage(name).getMaxValue() / 255;
+  }
+
+  /**
+   * Finds the image with the given name on the bottom layer, the first one composited.
+   * @param name - the name of the image underneath
+   * @return the image
+   * @throws IllegalArgumentException if the image is not on the bottom layer
+   */
+  private Image findBottomImage(String name) throws IllegalArgumentException {
+    if (layers.isEmpty() || !layers.get(0).getImageNames().contains(name)) {
+      throw new IllegalArgumentException("Unable to find image on the bottom layer: " + name);
     }
-    return dL;
+    return images.get(name);
   }
 
   @Override
@@ -396,96 +450,132 @@ public class CollageModelImpl implements CollageModel {
   }
 
   /**
-   * Applies a filter to the entire image and saves it in a map.
+   * Applies a filter to the entire image and saves it in a map. Large images are split into
+   * bands of rows that are filtered on the model's thread pool. In lazy mode only the source
+   * and filter are saved, and the filter runs when the pixels are first needed.
+   * @param name name of the image
+   * @param dest name of the new image
+   * @param filter the command name of the filter to be applied
+   * @throws IllegalArgumentException if any of the args are null or the filter does not exist
+   */
+  private void applyToImage(String name, String dest, String filter)
+          throws IllegalArgumentException {
+    if (filter == null) {
+      throw new IllegalArgumentException("Arguments are null");
+    }
+    this.applyToImage(name, dest, this.operationFor(filter, name),
+            this.kernelFor(filter, name));
+  }
+
+  /**
+   * Applies a kernel to the entire image and saves it in a map. If the same operation was
+   * already applied to the same image, the cached result is reused.
    * @param name name of the image
    * @param dest name of the new image
-   * @param filter type of filter to be applied
+   * @param operation identifies the filter and its parameters in the filter cache
+   * @param filter the kernel to be applied
    * @throws IllegalArgumentException if any of the args are null
    */
-  private void applyToImage(String name, String dest,
-                            Func<Image, Integer, Integer, Pixel> filter)
+  private void applyToImage(String name, String dest, Object operation, RowKernel filter)
           throws IllegalArgumentException {
 
     if (name == null || dest == null || filter == null) {
       throw new IllegalArgumentException("Arguments are null");
     }
     Image original = this.getImage(name);
-    int height = original.getHeight();
-    int width = original.getWidth();
-    Pixel[][] newPixels = new Pixel[height][width];
-
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        newPixels[i][j] = filter.apply(original, i, j);
-      }
+    FilterCache.Key key = new FilterCache.Key(original, operation);
+    if (this.lazy) {
+      this.images.put(dest, new DeferredImage(dest, original, filter, key, this.executor));
+    } else {
+      this.images.put(dest, this.executor.apply(original, dest, filter, key));
     }
-    this.images.put(dest, new ImageImpl(dest, newPixels, original.getMaxValue()));
   }
 
   @Override
-  public ArrayList<LayerImpl> getLayers() {
-    return this.layers;
+  public void setActiveLayer(int layerNumber) throws IllegalArgumentException {
+    if (layerNumber < -1 || layerNumber >= layers.size()) {
+      throw new IllegalArgumentException("Unable to find layer: " + layerNumber);
+    }
+    this.activeLayer = layerNumber;
   }
 
-  public void loadPPM(String imagePath) throws IllegalArgumentException {
-    Scanner sc;
-    try {
-      sc = new Scanner(new FileInputStream(imagePath));
-    } catch (FileNotFoundException e) {
-      throw new IllegalArgumentException("Invalid supplied file.");
+  @Override
+  public Image getComposite() throws IllegalStateException {
+    if (!projectMade) {
+      throw new IllegalStateException("No project created.");
     }
-    StringBuilder builder = new StringBuilder();
-    while (sc.hasNextLine()) {
-      String s = sc.nextLine();
-      if (!s.equals("") && s.charAt(0) != '#') {
-        builder.append(s).append(System.lineSeparator()); //add all non-comment lines
+    if (this.activeLayer < 0) {
+      this.activeCache = null;
+    } else if (this.activeCache == null || !this.activeCache.isFor(layers, this.activeLayer)) {
+      this.activeCache = new ActiveLayerCache(layers, this.activeLayer, width, height);
+    }
+    List<Rectangle> regions = new ArrayList<>();
+    for (int i = 0; i < layers.size(); i++) {
+      for (Rectangle area : layers.get(i).takeDirty()) {
+        if (this.activeCache != null) {
+          this.activeCache.update(i, area);
+        }
+        LayerImpl.addArea(regions, area);
       }
     }
-
-    // now set up the scanner to read from the string we just built
-    sc = new Scanner(builder.toString());
-    String token;
-
-    if (sc.hasNext()) {
-      token = sc.next();
-    } else {
-      throw new IllegalArgumentException("Image to load is blank.");
+    if (this.composite == null) {
+      this.composite = ImageUtil.createRaster("composite", width, height, 255);
+      regions.clear();
+      regions.add(new Rectangle(0, 0, width, height));
     }
-    if (!token.equals("P3")) {
-      throw new IllegalArgumentException("Invalid PPM file: plain RAW file should begin with P3");
+    for (Rectangle region : regions) {
+      this.recomposite(region);
     }
+    return this.composite;
+  }
 
-    int height = 0;
-    int width = 0;
-    if (sc.hasNextInt()) {
-      width = sc.nextInt();
-    }
-    if (sc.hasNextInt()) {
-      height = sc.nextInt();
+  /**
+   * Blends the layers, bottom to top, over the given area of the composite. With an active
+   * layer only the flattened layers below it, the layer itself and the flattened layers above
+   * it are blended.
+   * @param region the area to redraw
+   */
+  private void recomposite(Rectangle region) {
+    int[] blended = new int[region.width];
+    int[] scratch = new int[region.width];
+    for (int y = region.y; y < region.y + region.height; y++) {
+      if (this.activeCache != null) {
+        this.activeCache.blend(region.x, y, blended, scratch, region.width);
+      } else {
+        ActiveLayerCache.blendLayers(layers, 0, layers.size(), region.x, y, blended, scratch,
+                region.width);
+      }
+      for (int x = 0; x < region.width; x++) {
+        blended[x] = Compositor.unpremultiply(blended[x]);
+      }
+      this.composite.setSpan(region.x, y, blended, 0, region.width);
     }
+  }
 
-    Pixel[][] pixels = new Pixel[height][width];
+  @Override
+  public ArrayList<LayerImpl> getLayers() {
+    return this.layers;
+  }
 
-    int red = 0;
-    int green = 0;
-    int blue = 0;
-    int maxValue = 0;
-    for (int row = 0; row < height; row++) {
-      for (int col = 0; col < width; col++) {
-        if (sc.hasNextInt()) {
-          red = sc.nextInt();
-        }
-        if (sc.hasNextInt()) {
-          green = sc.nextInt();
-        }
-        if (sc.hasNextInt()) {
-          blue = sc.nextInt();
-        }
-        if (sc.hasNextInt()) {
-          maxValue = sc.nextInt();
-        }
-        pixels[row][col] = new PixelImpl(new Color(red, green, blue));
-      }
+  /**
+   * Loads a PPM image and saves it under the name of the file without its extension.
+   * @param imagePath the path of the image.
+   * @throws IllegalArgumentException if the file does not exist or is not a valid PPM image
+   */
+  @Override
+  public void loadPPM(String imagePath) throws IllegalArgumentException {
+    if (imagePath == null) {
+      throw new IllegalArgumentException("Arguments are null");
+    }
+    String name = Paths.get(imagePath).getFileName().toString();
+    int dot = name.lastIndexOf('.');
+    if (dot > 0) {
+      name = name.substring(0, dot);
+    }
+    try {
+      this.load(imagePath, name);
+    } catch (FileNotFoundException e) {
+      throw new IllegalArgumentException("Invalid supplied file.");
     }
   }
 
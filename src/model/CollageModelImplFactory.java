@@ -4,6 +4,33 @@ package model;
  * Factory class that contains one method to create a model object.
  */
 public class CollageModelImplFactory implements CollageModelFactory {
+  private final int parallelism;
+  private final boolean lazy;
+
+  /**
+   * Constructs a factory for models that apply filters on the calling thread.
+   */
+  public CollageModelImplFactory() {
+    this(1);
+  }
+
+  /**
+   * Constructs a factory for models that apply filters on the given number of threads.
+   * @param parallelism the number of threads each model uses
+   */
+  public CollageModelImplFactory(int parallelism) {
+    this(parallelism, false);
+  }
+
+  /**
+   * Constructs a factory for models that apply filters on the given number of threads.
+   * @param parallelism the number of threads each model uses
+   * @param lazy true if models only apply filters once the result is used
+   */
+  public CollageModelImplFactory(int parallelism, boolean lazy) {
+    this.parallelism = parallelism;
+    this.lazy = lazy;
+  }
 
   /**
    * Returns a CollageModelObject.
@@ -11,6 +38,8 @@ public class CollageModelImplFactory implements CollageModelFactory {
    */
   @Override
   public CollageModel createCollageModel() {
-    return new CollageModelImpl();
+    CollageModelImpl model = new CollageModelImpl(this.parallelism);
+    model.setLazy(this.lazy);
+    return model;
   }
 }
\ No newline at end of file
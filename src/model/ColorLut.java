@@ -0,0 +1,320 @@
+package model;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Represents a 3D color lookup table: a cube of output colors sampled on an evenly spaced grid
+ * of input colors, applied with trilinear interpolation. The grid spans an input domain, 0 to 1
+ * on each channel unless the table says otherwise, and inputs outside it use the nearest edge.
+ * Tables can be read from and written to the .cube format, and any pointwise filter can be
+ * baked into one, so a long chain of filters runs as a single lookup.
+ */
+public final class ColorLut implements PixelKernel {
+  /**
+   * The grid size used when baking filters unless another is given.
+   */
+  public static final int DEFAULT_SIZE = 33;
+
+  private static final int MAX_LOADED = 16;
+  private static final Map<List<Object>, ColorLut> LOADED =
+          new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, ColorLut> eldest) {
+              return this.size() > MAX_LOADED;
+            }
+          };
+
+  private final int size;
+  // red, green and blue outputs from 0 to 1 for every grid point, red index changing fastest
+  private final float[] table;
+  private final float[] domainMin;
+  private final float[] domainMax;
+  // per channel, the grid position is the channel value from 0 to 255 times scale plus offset
+  private final float[] scale;
+  private final float[] offset;
+
+  /**
+   * Constructs a table from its output colors. The array is copied.
+   * @param size the number of grid points along each axis, 2-256
+   * @param table red, green and blue outputs from 0 to 1 for each of the size^3 grid points,
+   *              the red index changing fastest, then green, then blue
+   * @throws IllegalArgumentException if the size is out of range or the table has the wrong
+   *                                  length
+   */
+  public ColorLut(int size, float[] table) throws IllegalArgumentException {
+    this(size, table, new float[] {0, 0, 0}, new float[] {1, 1, 1});
+  }
+
+  /**
+   * Constructs a table from its output colors and the input domain its grid spans. The arrays
+   * are copied.
+   * @param size the number of grid points along each axis, 2-256
+   * @param table red, green and blue outputs from 0 to 1 for each of the size^3 grid points,
+   *              the red index changing fastest, then green, then blue
+   * @param domainMin the red, green and blue inputs, from 0 to 1, at the first grid point
+   * @param domainMax the red, green and blue inputs, from 0 to 1, at the last grid point
+   * @throws IllegalArgumentException if the size is out of range, the table has the wrong
+   *                                  length, or a domain is not three increasing values
+   */
+  public ColorLut(int size, float[] table, float[] domainMin, float[] domainMax)
+          throws IllegalArgumentException {
+    if (size < 2 || size > 256) {
+      throw new IllegalArgumentException("A 3D LUT needs 2 to 256 points per axis.");
+    }
+    if (table == null || table.length != 3 * size * size * size) {
+      throw new IllegalArgumentException("A 3D LUT of size " + size + " needs "
+              + 3 * size * size * size + " values.");
+    }
+    if (domainMin == null || domainMax == null || domainMin.length != 3
+            || domainMax.length != 3) {
+      throw new IllegalArgumentException("A LUT domain needs three values.");
+    }
+    this.scale = new float[3];
+    this.offset = new float[3];
+    for (int c = 0; c < 3; c++) {
+      float range = domainMax[c] - domainMin[c];
+      if (!(range > 0) || Float.isInfinite(range)) {
+        throw new IllegalArgumentException("DOMAIN_MIN must be below DOMAIN_MAX.");
+      }
+      this.scale[c] = (size - 1) / (255f * range);
+      this.offset[c] = -domainMin[c] * (size - 1) / range;
+    }
+    this.size = size;
+    this.table = table.clone();
+    this.domainMin = domainMin.clone();
+    this.domainMax = domainMax.clone();
+  }
+
+  /**
+   * Bakes a pointwise filter into a table by sampling it at every grid point. A size of 256
+   * samples every color and reproduces the filter exactly; smaller tables interpolate between
+   * samples.
+   * @param kernel the filter to bake
+   * @param size the number of grid points along each axis, 2-256
+   * @return the table
+   * @throws IllegalArgumentException if the kernel is null or the size is out of range
+   */
+  public static ColorLut bake(PixelKernel kernel, int size) throws IllegalArgumentException {
+    if (kernel == null) {
+      throw new IllegalArgumentException("Arguments are null");
+    }
+    if (size < 2 || size > 256) {
+      throw new IllegalArgumentException("A 3D LUT needs 2 to 256 points per axis.");
+    }
+    float[] table = new float[3 * size * size * size];
+    int i = 0;
+    for (int b = 0; b < size; b++) {
+      for (int g = 0; g < size; g++) {
+        for (int r = 0; r < size; r++) {
+          int argb = kernel.apply(RasterImage.pack(sample(r, size), sample(g, size),
+                  sample(b, size)));
+          table[i++] = ((argb >> 16) & 0xFF) / 255f;
+          table[i++] = ((argb >> 8) & 0xFF) / 255f;
+          table[i++] = (argb & 0xFF) / 255f;
+        }
+      }
+    }
+    return new ColorLut(size, table);
+  }
+
+  /**
+   * Returns the table in a .cube file, reading the file only if it changed since it was last
+   * loaded.
+   * @param path the path of the file
+   * @return the table
+   * @throws IOException if the file cannot be read
+   * @throws IllegalArgumentException if the file is not a valid 3D .cube file
+   */
+  public static ColorLut load(String path) throws IOException, IllegalArgumentException {
+    Path file = Paths.get(path).toAbsolutePath();
+    List<Object> key = Arrays.asList(file, Files.getLastModifiedTime(file), Files.size(file));
+    synchronized (LOADED) {
+      ColorLut lut = LOADED.get(key);
+      if (lut != null) {
+        return lut;
+      }
+    }
+    ColorLut lut = read(file);
+    synchronized (LOADED) {
+      LOADED.put(key, lut);
+    }
+    return lut;
+  }
+
+  /**
+   * Reads a table from a .cube file. Comments, a TITLE line and DOMAIN_MIN and DOMAIN_MAX lines
+   * are allowed; 1D tables are not supported. The domain sets the input colors the grid spans,
+   * and the output colors are used as written.
+   * @param file the path of the file
+   * @return the table
+   * @throws IOException if the file cannot be read
+   * @throws IllegalArgumentException if the file is not a valid 3D .cube file
+   */
+  public static ColorLut read(Path file) throws IOException, IllegalArgumentException {
+    int size = 0;
+    float[] table = null;
+    float[] domainMin = {0, 0, 0};
+    float[] domainMax = {1, 1, 1};
+    int count = 0;
+    try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = in.readLine()) != null) {
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        String[] parts = line.split("\\s+");
+        switch (parts[0]) {
+          case "TITLE":
+            break;
+          case "LUT_1D_SIZE":
+            throw new IllegalArgumentException("1D LUTs are not supported.");
+          case "LUT_3D_SIZE":
+            size = parseSize(parts);
+            table = new float[3 * size * size * size];
+            break;
+          case "DOMAIN_MIN":
+            domainMin = parseTriple(parts);
+            break;
+          case "DOMAIN_MAX":
+            domainMax = parseTriple(parts);
+            break;
+          default:
+            if (table == null) {
+              throw new IllegalArgumentException("LUT_3D_SIZE must come before the table.");
+            }
+            if (count == table.length) {
+              throw new IllegalArgumentException("The LUT has too many entries.");
+            }
+            float[] rgb = parseTriple(parts);
+            System.arraycopy(rgb, 0, table, count, 3);
+            count += 3;
+        }
+      }
+    }
+    if (table == null || count != table.length) {
+      throw new IllegalArgumentException("The LUT is missing entries.");
+    }
+    return new ColorLut(size, table, domainMin, domainMax);
+  }
+
+  /**
+   * Writes the table as a .cube file, with its domain if it is not 0 to 1.
+   * @param path the path of the file
+   * @throws IOException if the file cannot be written
+   */
+  public void write(String path) throws IOException {
+    try (BufferedWriter out = Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8)) {
+      out.write("LUT_3D_SIZE " + this.size);
+      out.newLine();
+      if (!Arrays.equals(this.domainMin, new float[] {0, 0, 0})
+              || !Arrays.equals(this.domainMax, new float[] {1, 1, 1})) {
+        out.write(String.format(Locale.ROOT, "DOMAIN_MIN %.6f %.6f %.6f", this.domainMin[0],
+                this.domainMin[1], this.domainMin[2]));
+        out.newLine();
+        out.write(String.format(Locale.ROOT, "DOMAIN_MAX %.6f %.6f %.6f", this.domainMax[0],
+                this.domainMax[1], this.domainMax[2]));
+        out.newLine();
+      }
+      for (int i = 0; i < this.table.length; i += 3) {
+        out.write(String.format(Locale.ROOT, "%.6f %.6f %.6f", this.table[i], this.table[i + 1],
+                this.table[i + 2]));
+        out.newLine();
+      }
+    }
+  }
+
+  /**
+   * Returns the number of grid points along each axis.
+   * @return the size
+   */
+  public int getSize() {
+    return this.size;
+  }
+
+  @Override
+  public int apply(int argb) {
+    float r = this.gridPosition((argb >> 16) & 0xFF, 0);
+    float g = this.gridPosition((argb >> 8) & 0xFF, 1);
+    float b = this.gridPosition(argb & 0xFF, 2);
+    int r0 = Math.min((int) r, this.size - 2);
+    int g0 = Math.min((int) g, this.size - 2);
+    int b0 = Math.min((int) b, this.size - 2);
+    float fr = r - r0;
+    float fg = g - g0;
+    float fb = b - b0;
+
+    int dr = 3;
+    int dg = 3 * this.size;
+    int db = 3 * this.size * this.size;
+    int base = b0 * db + g0 * dg + r0 * dr;
+    int result = 0xFF000000;
+    for (int c = 0; c < 3; c++) {
+      int i = base + c;
+      float c00 = lerp(this.table[i], this.table[i + dr], fr);
+      float c10 = lerp(this.table[i + dg], this.table[i + dg + dr], fr);
+      float c01 = lerp(this.table[i + db], this.table[i + db + dr], fr);
+      float c11 = lerp(this.table[i + db + dg], this.table[i + db + dg + dr], fr);
+      float value = lerp(lerp(c00, c10, fg), lerp(c01, c11, fg), fb);
+      int channel = Math.min(255, Math.max(0, Math.round(value * 255)));
+      result |= channel << (16 - 8 * c);
+    }
+    return result;
+  }
+
+  // where a channel value from 0 to 255 falls on the grid, clamped to its edges
+  private float gridPosition(int value, int channel) {
+    float position = value * this.scale[channel] + this.offset[channel];
+    return Math.min(Math.max(position, 0), this.size - 1);
+  }
+
+  // the channel value at a grid index
+  private static int sample(int index, int size) {
+    return Math.round(index * 255f / (size - 1));
+  }
+
+  private static float lerp(float a, float b, float t) {
+    return a + (b - a) * t;
+  }
+
+  private static int parseSize(String[] parts) throws IllegalArgumentException {
+    int size;
+    try {
+      size = Integer.parseInt(parts[1]);
+    } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+      throw new IllegalArgumentException("Invalid LUT_3D_SIZE line.");
+    }
+    if (size < 2 || size > 256) {
+      throw new IllegalArgumentException("A 3D LUT needs 2 to 256 points per axis.");
+    }
+    return size;
+  }
+
+  private static float[] parseTriple(String[] parts) throws IllegalArgumentException {
+    int offset = parts.length == 4 ? 1 : 0;
+    if (parts.length - offset != 3) {
+      throw new IllegalArgumentException("Expected three values but found: "
+              + String.join(" ", parts));
+    }
+    float[] values = new float[3];
+    for (int c = 0; c < 3; c++) {
+      try {
+        values[c] = Float.parseFloat(parts[offset + c]);
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid LUT value: " + parts[offset + c]);
+      }
+    }
+    return values;
+  }
+}
@@ -0,0 +1,110 @@
+package model;
+
+/**
+ * Blends packed ARGB pixels with integer arithmetic. Layers hold premultiplied pixels, where
+ * each color channel has already been multiplied by alpha, so placing one pixel over another
+ * is a single multiply-add per channel. Two channels are blended at once in the halves of an
+ * int, and every product is divided by 255 with exact rounding.
+ */
+public final class Compositor {
+
+  private Compositor() {
+  }
+
+  /**
+   * Multiplies the color channels of a straight pixel by its alpha.
+   * @param argb the straight pixel
+   * @return the premultiplied pixel
+   */
+  public static int premultiply(int argb) {
+    int a = argb >>> 24;
+    if (a == 255) {
+      return argb;
+    }
+    if (a == 0) {
+      return 0;
+    }
+    return (argb & 0xFF000000) | scale(argb & 0x00FFFFFF, a);
+  }
+
+  /**
+   * Divides the color channels of a premultiplied pixel by its alpha.
+   * @param pargb the premultiplied pixel
+   * @return the straight pixel, or 0 if it is fully transparent
+   */
+  public static int unpremultiply(int pargb) {
+    int a = pargb >>> 24;
+    if (a == 255 || a == 0) {
+      return a == 0 ? 0 : pargb;
+    }
+    int half = a >> 1;
+    int r = Math.min((((pargb >> 16) & 0xFF) * 255 + half) / a, 255);
+    int g = Math.min((((pargb >> 8) & 0xFF) * 255 + half) / a, 255);
+    int b = Math.min(((pargb & 0xFF) * 255 + half) / a, 255);
+    return (pargb & 0xFF000000) | (r << 16) | (g << 8) | b;
+  }
+
+  /**
+   * Places one premultiplied pixel over another, the Porter-Duff "over" operator.
+   * @param src the pixel on top
+   * @param dest the pixel underneath
+   * @return the blended premultiplied pixel
+   */
+  public static int over(int src, int dest) {
+    int a = src >>> 24;
+    if (a == 255) {
+      return src;
+    }
+    if (a == 0) {
+      return dest;
+    }
+    // src channels are at most a, and the scaled dest channels at most 255 - a, so no carries
+    return src + scale(dest, 255 - a);
+  }
+
+  /**
+   * Places a run of straight pixels over a run of premultiplied pixels, writing the result
+   * over the premultiplied pixels.
+   * @param src the straight pixels on top
+   * @param srcOffset the index of the first pixel on top
+   * @param dest the premultiplied pixels underneath
+   * @param destOffset the index of the first pixel underneath
+   * @param length the number of pixels
+   */
+  public static void overStraight(int[] src, int srcOffset, int[] dest, int destOffset,
+                                  int length) {
+    for (int i = 0; i < length; i++) {
+      int argb = src[srcOffset + i];
+      int a = argb >>> 24;
+      if (a == 255) {
+        dest[destOffset + i] = argb;
+      } else if (a != 0) {
+        dest[destOffset + i] = over(premultiply(argb), dest[destOffset + i]);
+      }
+    }
+  }
+
+  /**
+   * Places a run of premultiplied pixels over another, writing the result over the pixels
+   * underneath.
+   * @param src the premultiplied pixels on top
+   * @param srcOffset the index of the first pixel on top
+   * @param dest the premultiplied pixels underneath
+   * @param destOffset the index of the first pixel underneath
+   * @param length the number of pixels
+   */
+  public static void over(int[] src, int srcOffset, int[] dest, int destOffset, int length) {
+    for (int i = 0; i < length; i++) {
+      dest[destOffset + i] = over(src[srcOffset + i], dest[destOffset + i]);
+    }
+  }
+
+  // every byte of the pixel times factor / 255, rounded, two bytes at a time
+  private static int scale(int pixel, int factor) {
+    int rb = (pixel & 0x00FF00FF) * factor + 0x00800080;
+    rb = ((rb + ((rb >>> 8) & 0x00FF00FF)) >>> 8) & 0x00FF00FF;
+    int ag = ((pixel >>> 8) & 0x00FF00FF) * factor + 0x00800080;
+    ag = (ag + ((ag >>> 8) & 0x00FF00FF)) & 0xFF00FF00;
+    return ag | rb;
+  }
+}
@@ -0,0 +1,93 @@
+package model;
+
+/**
+ * Represents a filter where each output pixel is a weighted sum of the input pixels in a square
+ * around it. Pixels past the edges of the image take the value of the nearest edge pixel. The
+ * alpha channel is kept from the centre pixel.
+ */
+public final class ConvolutionKernel {
+  /**
+   * A 3x3 Gaussian blur.
+   */
+  public static final ConvolutionKernel BLUR = new ConvolutionKernel(new double[][] {
+      {1 / 16.0, 1 / 8.0, 1 / 16.0},
+      {1 / 8.0, 1 / 4.0, 1 / 8.0},
+      {1 / 16.0, 1 / 8.0, 1 / 16.0}});
+
+  /**
+   * A 5x5 sharpen that adds the difference from the surrounding pixels.
+   */
+  public static final ConvolutionKernel SHARPEN = new ConvolutionKernel(new double[][] {
+      {-1 / 8.0, -1 / 8.0, -1 / 8.0, -1 / 8.0, -1 / 8.0},
+      {-1 / 8.0, 1 / 4.0, 1 / 4.0, 1 / 4.0, -1 / 8.0},
+      {-1 / 8.0, 1 / 4.0, 1.0, 1 / 4.0, -1 / 8.0},
+      {-1 / 8.0, 1 / 4.0, 1 / 4.0, 1 / 4.0, -1 / 8.0},
+      {-1 / 8.0, -1 / 8.0, -1 / 8.0, -1 / 8.0, -1 / 8.0}});
+
+  private final double[][] weights;
+  private final int radius;
+
+  /**
+   * Constructs a kernel from its weights. The weights are copied.
+   * @param weights a square matrix of weights with an odd number of rows, centred on the
+   *                filtered pixel
+   * @throws IllegalArgumentException if the matrix is null, not square, or has an even size
+   */
+  public ConvolutionKernel(double[][] weights) throws IllegalArgumentException {
+    if (weights == null || weights.length % 2 == 0) {
+      throw new IllegalArgumentException("A kernel needs an odd number of rows.");
+    }
+    this.weights = new double[weights.length][];
+    for (int i = 0; i < weights.length; i++) {
+      if (weights[i] == null || weights[i].length != weights.length) {
+        throw new IllegalArgumentException("A kernel must be square.");
+      }
+      this.weights[i] = weights[i].clone();
+    }
+    this.radius = weights.length / 2;
+  }
+
+  /**
+   * Returns the number of rows the kernel reaches above and below the filtered pixel.
+   * @return the radius
+   */
+  public int getRadius() {
+    return this.radius;
+  }
+
+  /**
+   * Filters one row of pixels.
+   * @param rows the rows around the filtered row, from radius rows above to radius rows below,
+   *             with rows past the top or bottom edge repeating the edge row
+   * @param dest the array to write the filtered pixels into
+   * @param width the number of pixels in each row
+   * @throws IllegalArgumentException if there are not 2 * radius + 1 rows
+   */
+  public void convolveRow(int[][] rows, int[] dest, int width) throws IllegalArgumentException {
+    if (rows.length != this.weights.length) {
+      throw new IllegalArgumentException("Expected " + this.weights.length + " rows.");
+    }
+    for (int x = 0; x < width; x++) {
+      double r = 0;
+      double g = 0;
+      double b = 0;
+      for (int i = 0; i < rows.length; i++) {
+        int[] row = rows[i];
+        double[] weightRow = this.weights[i];
+        for (int j = 0; j < weightRow.length; j++) {
+          int argb = row[Math.min(Math.max(x + j - this.radius, 0), width - 1)];
+          double weight = weightRow[j];
+          r += weight * ((argb >> 16) & 0xFF);
+          g += weight * ((argb >> 8) & 0xFF);
+          b += weight * (argb & 0xFF);
+        }
+      }
+      dest[x] = (rows[this.radius][x] & 0xFF000000) | (clamp(r) << 16) | (clamp(g) << 8)
+              | clamp(b);
+    }
+  }
+
+  private static int clamp(double channel) {
+    return (int) Math.min(Math.max(Math.round(channel), 0), 255);
+  }
+}
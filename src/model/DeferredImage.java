@@ -0,0 +1,117 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * Represents an image that is the result of a filter which has not been applied yet. The filter
+ * runs the first time the pixels are needed, and the result is kept for later calls.
+ */
+public class DeferredImage implements Image {
+  private final String name;
+  private final int width;
+  private final int height;
+  private final int maxValue;
+  private final FilterExecutor executor;
+  private Image source;
+  private RowKernel filter;
+  private FilterCache.Key key;
+  private volatile WritableImage result;
+
+  /**
+   * Constructs a deferred image. When the source is itself a deferred image that has not been
+   * evaluated, the two filters are fused so that evaluating this image makes a single pass.
+   * @param name the name of the image
+   * @param source the image the filter is applied to
+   * @param filter the filter to apply
+   * @param key identifies the source and filter in the filter cache
+   * @param executor runs the filter when the pixels are needed
+   */
+  DeferredImage(String name, Image source, RowKernel filter, FilterCache.Key key,
+                FilterExecutor executor) {
+    if (source instanceof DeferredImage) {
+      DeferredImage deferred = (DeferredImage) source;
+      synchronized (deferred) {
+        if (deferred.result == null) {
+          filter = FusedKernel.of(Arrays.asList(deferred.filter, filter));
+          key = new FilterCache.Key(deferred.key.getSource(),
+                  Arrays.asList(deferred.key.getOperation(), key.getOperation()));
+          source = deferred.source;
+        } else {
+          source = deferred.result;
+        }
+      }
+    }
+    this.name = name;
+    this.width = source.getWidth();
+    this.height = source.getHeight();
+    this.maxValue = source.getMaxValue();
+    this.source = source;
+    this.filter = filter;
+    this.key = key;
+    this.executor = executor;
+  }
+
+  /**
+   * Applies the filter if it has not been applied yet and returns the result.
+   * @return the filtered image
+   */
+  public WritableImage evaluate() {
+    WritableImage evaluated = this.result;
+    if (evaluated == null) {
+      synchronized (this) {
+        evaluated = this.result;
+        if (evaluated == null) {
+          evaluated = this.executor.apply(this.source, this.name, this.filter, this.key);
+          this.result = evaluated;
+          this.source = null;
+          this.filter = null;
+          this.key = null;
+        }
+      }
+    }
+    return evaluated;
+  }
+
+  /**
+   * Returns whether the filter has already been applied.
+   * @return true if the pixels have been computed
+   */
+  public boolean isEvaluated() {
+    return this.result != null;
+  }
+
+  @Override
+  public Pixel getPixel(int row, int col) {
+    return this.evaluate().getPixel(row, col);
+  }
+
+  @Override
+  public int getArgb(int x, int y) {
+    return this.evaluate().getArgb(x, y);
+  }
+
+  @Override
+  public void getRow(int y, int[] dest, int destOffset) {
+    this.evaluate().getRow(y, dest, destOffset);
+  }
+
+  @Override
+  public int getMaxValue() {
+    return this.maxValue;
+  }
+
+  @Override
+  public int getWidth() {
+    return this.width;
+  }
+
+  @Override
+  public int getHeight() {
+    return this.height;
+  }
+
+  @Override
+  public String getName() {
+    return this.name;
+  }
+}
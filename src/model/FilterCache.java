@@ -0,0 +1,221 @@
+package model;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Remembers the results of filters so that applying the same filter to the same image again
+ * returns the earlier result instead of recomputing it. Results are shared between every image
+ * they are returned for, so they must not be modified. The least recently used results are
+ * dropped once their total size goes over the byte budget, or over the memory the model's
+ * image ceiling leaves free. Sources are held weakly, so results for images that are no
+ * longer used are dropped too.
+ */
+public class FilterCache {
+  private final LinkedHashMap<Key, WritableImage> results;
+  private long byteBudget;
+  // the room left by the images the model holds in memory, set by the image registry
+  private long memoryLimit;
+  private long bytes;
+  private long hits;
+  private long misses;
+  private long evictions;
+
+  /**
+   * Constructs an empty cache.
+   * @param byteBudget the largest total size of the cached results, 0 to cache nothing
+   * @throws IllegalArgumentException if the budget is negative
+   */
+  public FilterCache(long byteBudget) throws IllegalArgumentException {
+    this.results = new LinkedHashMap<>(16, 0.75f, true);
+    this.memoryLimit = Long.MAX_VALUE;
+    this.setByteBudget(byteBudget);
+  }
+
+  /**
+   * Returns the result cached for the key and marks it as the most recently used.
+   * @param key the source image and operation
+   * @return the result, or null if it is not cached
+   */
+  public synchronized WritableImage get(Key key) {
+    WritableImage result = this.results.get(key);
+    if (result == null) {
+      this.misses++;
+    } else {
+      this.hits++;
+    }
+    return result;
+  }
+
+  /**
+   * Caches a result, evicting the least recently used results if the budget is exceeded.
+   * Results larger than the whole budget are not cached.
+   * @param key the source image and operation
+   * @param result the filtered image
+   */
+  public synchronized void put(Key key, WritableImage result) {
+    this.purge();
+    long size = sizeOf(result);
+    if (size > Math.min(this.byteBudget, this.memoryLimit)) {
+      return;
+    }
+    WritableImage old = this.results.put(key, result);
+    if (old != null) {
+      this.bytes -= sizeOf(old);
+    }
+    this.bytes += size;
+    this.trim();
+  }
+
+  /**
+   * Changes the byte budget, evicting results if the cache is now over it.
+   * @param byteBudget the largest total size of the cached results, 0 to cache nothing
+   * @throws IllegalArgumentException if the budget is negative
+   */
+  public synchronized void setByteBudget(long byteBudget) throws IllegalArgumentException {
+    if (byteBudget < 0) {
+      throw new IllegalArgumentException("Cache budget cannot be negative.");
+    }
+    this.byteBudget = byteBudget;
+    this.trim();
+  }
+
+  /**
+   * Limits the cached results to the memory left under the model's image ceiling, evicting
+   * results if the cache is now over it. The byte budget still applies when it is lower.
+   * @param bytes the memory the cached results may use
+   */
+  synchronized void setMemoryLimit(long bytes) {
+    this.memoryLimit = Math.max(bytes, 0);
+    this.trim();
+  }
+
+  /**
+   * Returns the largest total size of the cached results.
+   * @return the budget in bytes
+   */
+  public synchronized long getByteBudget() {
+    return this.byteBudget;
+  }
+
+  /**
+   * Returns the total size of the cached results.
+   * @return the size in bytes
+   */
+  public synchronized long getBytes() {
+    return this.bytes;
+  }
+
+  /**
+   * Returns the number of lookups that found a result.
+   * @return the hit count
+   */
+  public synchronized long getHits() {
+    return this.hits;
+  }
+
+  /**
+   * Returns the number of lookups that did not find a result.
+   * @return the miss count
+   */
+  public synchronized long getMisses() {
+    return this.misses;
+  }
+
+  /**
+   * Returns the number of results dropped to stay within the budget.
+   * @return the eviction count
+   */
+  public synchronized long getEvictions() {
+    return this.evictions;
+  }
+
+  // drops the least recently used results until the cache is within its budget and limit
+  private void trim() {
+    long limit = Math.min(this.byteBudget, this.memoryLimit);
+    Iterator<Map.Entry<Key, WritableImage>> it = this.results.entrySet().iterator();
+    while (this.bytes > limit && it.hasNext()) {
+      this.bytes -= sizeOf(it.next().getValue());
+      it.remove();
+      this.evictions++;
+    }
+  }
+
+  // drops the results whose source image has been garbage collected
+  private void purge() {
+    Iterator<Map.Entry<Key, WritableImage>> it = this.results.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<Key, WritableImage> next = it.next();
+      if (next.getKey().getSource() == null) {
+        this.bytes -= sizeOf(next.getValue());
+        it.remove();
+      }
+    }
+  }
+
+  private static long sizeOf(WritableImage image) {
+    return 4L * image.getWidth() * image.getHeight();
+  }
+
+  /**
+   * Identifies a filter result by the image it was applied to and the operation. The source is
+   * compared by identity, since images are not changed once they are stored in the model, and
+   * held weakly, so a cached result does not keep its source in memory. Once the source is
+   * garbage collected the key equals no other key. The operation is compared with equals and
+   * should include any parameters of the filter.
+   */
+  public static final class Key {
+    private final WeakReference<Image> source;
+    private final int sourceHash;
+    private final Object operation;
+
+    /**
+     * Constructs a key.
+     * @param source the image the filter is applied to
+     * @param operation the filter name, or a list of the name and its parameters
+     */
+    public Key(Image source, Object operation) {
+      this.source = new WeakReference<>(source);
+      this.sourceHash = System.identityHashCode(source);
+      this.operation = operation;
+    }
+
+    /**
+     * Returns the image the filter is applied to.
+     * @return the source image, or null if it has been garbage collected
+     */
+    public Image getSource() {
+      return this.source.get();
+    }
+
+    /**
+     * Returns the filter name and parameters.
+     * @return the operation
+     */
+    public Object getOperation() {
+      return this.operation;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key k = (Key) o;
+      Image image = this.source.get();
+      return image != null && image == k.source.get()
+              && Objects.equals(this.operation, k.operation);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * this.sourceHash + Objects.hashCode(this.operation);
+    }
+  }
+}
@@ -0,0 +1,115 @@
+package model;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Runs row kernels over whole images, either on the calling thread or split into bands of rows
+ * on a thread pool. Pointwise kernels run over tiled images one row of tiles at a time. Results
+ * can be remembered in a cache so the same filter is not run twice on the same image.
+ */
+class FilterExecutor {
+  private final int parallelism;
+  private final int sequentialCutoff;
+  private final FilterCache cache;
+  private ForkJoinPool pool;
+
+  /**
+   * Constructs an executor.
+   * @param parallelism the number of threads to use, 1 to run on the calling thread
+   * @param sequentialCutoff the number of pixels at or below which a band of rows is not split
+   * @param cache the cache of earlier results
+   * @throws IllegalArgumentException if parallelism or sequentialCutoff is less than 1
+   */
+  FilterExecutor(int parallelism, int sequentialCutoff, FilterCache cache)
+          throws IllegalArgumentException {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be at least 1.");
+    }
+    if (sequentialCutoff < 1) {
+      throw new IllegalArgumentException("Sequential cutoff must be at least 1.");
+    }
+    this.parallelism = parallelism;
+    this.sequentialCutoff = sequentialCutoff;
+    this.cache = cache;
+  }
+
+  /**
+   * Returns the cached result for the key under the new name, or applies the kernel and caches
+   * the result.
+   * @param original the image to read
+   * @param dest the name of the new image
+   * @param filter the kernel to apply
+   * @param key identifies the source image and operation, or null to skip the cache
+   * @return the filtered image
+   */
+  WritableImage apply(Image original, String dest, RowKernel filter, FilterCache.Key key) {
+    if (key == null) {
+      return this.apply(original, dest, filter);
+    }
+    WritableImage cached = this.cache.get(key);
+    if (cached != null) {
+      return cached.withName(dest);
+    }
+    WritableImage result = this.apply(original, dest, filter);
+    this.cache.put(key, result);
+    return result;
+  }
+
+  /**
+   * Returns the cache of earlier results.
+   * @return the cache
+   */
+  FilterCache getCache() {
+    return this.cache;
+  }
+
+  /**
+   * Applies the kernel to every row of the image.
+   * @param original the image to read
+   * @param dest the name of the new image
+   * @param filter the kernel to apply
+   * @return the filtered image
+   */
+  WritableImage apply(Image original, String dest, RowKernel filter) {
+    int height = original.getHeight();
+    int width = original.getWidth();
+    if (original instanceof TiledImage && filter instanceof PixelKernel) {
+      return this.applyTiles((TiledImage) original, dest, (PixelKernel) filter);
+    }
+    WritableImage result = ImageUtil.createRaster(dest, width, height,
+            original.getMaxValue());
+
+    if (this.parallelism == 1 || (long) width * height <= this.sequentialCutoff) {
+      RowBandTask.applyRows(filter, original, result, 0, height);
+    } else {
+      this.getPool().invoke(new RowBandTask(filter, original, result, 0, height,
+              this.sequentialCutoff));
+    }
+    return result;
+  }
+
+  // applies a pointwise kernel tile by tile, one row of tiles per task
+  private TiledImage applyTiles(TiledImage original, String dest, PixelKernel filter) {
+    TiledImage result = new TiledImage(dest, original.getWidth(), original.getHeight(),
+            original.getMaxValue());
+    int tileRows = original.getTileRows();
+    if (this.parallelism == 1 || tileRows == 1) {
+      for (int tileRow = 0; tileRow < tileRows; tileRow++) {
+        result.applyToTileRow(filter, original, tileRow);
+      }
+    } else {
+      this.getPool().submit(() -> IntStream.range(0, tileRows).parallel()
+              .forEach(tileRow -> result.applyToTileRow(filter, original, tileRow))).join();
+    }
+    return result;
+  }
+
+  // creates the thread pool the first time an image is large enough to run in parallel
+  private synchronized ForkJoinPool getPool() {
+    if (this.pool == null) {
+      this.pool = new ForkJoinPool(this.parallelism);
+    }
+    return this.pool;
+  }
+}
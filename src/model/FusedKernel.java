@@ -0,0 +1,101 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Represents a chain of filters run as a single pass over an image. Runs of pointwise kernels
+ * are composed into one kernel that runs each of them over the row in place, so every stage
+ * keeps its own row loop. The first stage writes into the destination row and the rest filter
+ * it in place, so neither an intermediate image nor a scratch row is created.
+ */
+public final class FusedKernel implements RowKernel {
+  private final RowKernel[] stages;
+
+  private FusedKernel(RowKernel[] stages) {
+    this.stages = stages;
+  }
+
+  /**
+   * Fuses the given kernels, applied in order, into one kernel. If every kernel is pointwise the
+   * result is a pointwise kernel as well.
+   * @param kernels the kernels to apply, first to last
+   * @return the fused kernel
+   * @throws IllegalArgumentException if the list is null, empty or contains null
+   */
+  public static RowKernel of(List<? extends RowKernel> kernels) throws IllegalArgumentException {
+    if (kernels == null || kernels.isEmpty()) {
+      throw new IllegalArgumentException("At least one filter is needed.");
+    }
+    List<RowKernel> stages = new ArrayList<>();
+    List<PixelKernel> run = new ArrayList<>();
+    for (RowKernel kernel : kernels) {
+      if (kernel == null) {
+        throw new IllegalArgumentException("Filters must be non-null.");
+      }
+      if (kernel instanceof PixelChain) {
+        run.addAll(Arrays.asList(((PixelChain) kernel).stages));
+      } else if (kernel instanceof PixelKernel) {
+        run.add((PixelKernel) kernel);
+      } else {
+        addRun(stages, run);
+        stages.add(kernel);
+      }
+    }
+    addRun(stages, run);
+    if (stages.size() == 1) {
+      return stages.get(0);
+    }
+    return new FusedKernel(stages.toArray(new RowKernel[0]));
+  }
+
+  // adds a run of pointwise kernels to the stages as one kernel, and empties the run
+  private static void addRun(List<RowKernel> stages, List<PixelKernel> run) {
+    if (run.size() == 1) {
+      stages.add(run.get(0));
+    } else if (run.size() > 1) {
+      stages.add(new PixelChain(run.toArray(new PixelKernel[0])));
+    }
+    run.clear();
+  }
+
+  @Override
+  public void applyRow(int row, int[] src, int srcOffset, int[] dest, int destOffset,
+                       int length) {
+    this.stages[0].applyRow(row, src, srcOffset, dest, destOffset, length);
+    for (int i = 1; i < this.stages.length; i++) {
+      this.stages[i].applyRow(row, dest, destOffset, dest, destOffset, length);
+    }
+  }
+
+  /**
+   * Runs pointwise kernels one after another. A row goes through each kernel's own applyRow,
+   * the first writing into dest and the rest filtering dest in place, so vectorised and
+   * scratch-reusing rows are kept.
+   */
+  private static final class PixelChain implements PixelKernel {
+    private final PixelKernel[] stages;
+
+    private PixelChain(PixelKernel[] stages) {
+      this.stages = stages;
+    }
+
+    @Override
+    public int apply(int argb) {
+      for (PixelKernel stage : this.stages) {
+        argb = stage.apply(argb);
+      }
+      return argb;
+    }
+
+    @Override
+    public void applyRow(int row, int[] src, int srcOffset, int[] dest, int destOffset,
+                         int length) {
+      this.stages[0].applyRow(row, src, srcOffset, dest, destOffset, length);
+      for (int i = 1; i < this.stages.length; i++) {
+        this.stages[i].applyRow(row, dest, destOffset, dest, destOffset, length);
+      }
+    }
+  }
+}
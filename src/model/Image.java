@@ -13,6 +13,22 @@ public interface Image {
    */
   Pixel getPixel(int row, int col);
 
+  /**
+   * Returns the packed ARGB value of the pixel in column x and row y.
+   * @param x - column of the pixel
+   * @param y - row of the pixel
+   * @return the color as 0xAARRGGBB
+   */
+  int getArgb(int x, int y);
+
+  /**
+   * Copies the packed ARGB values of row y into the given array.
+   * @param y - the row to copy
+   * @param dest - the array to copy into, with room for getWidth() values
+   * @param destOffset - the index in dest of the first value
+   */
+  void getRow(int y, int[] dest, int destOffset);
+
   /**
    * Returns the maximum RGB value of each pixel.
    * @return the maxValue
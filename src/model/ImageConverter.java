@@ -0,0 +1,151 @@
+package model;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Moves pixels between images and BufferedImages, as used to load and save JPEG, PNG and BMP
+ * files and to show images on screen. The packed int and interleaved byte layouts that ImageIO
+ * reads and writes are copied straight from and to their data buffers a row at a time, and
+ * other layouts go through getRGB a row at a time.
+ */
+public final class ImageConverter {
+
+  private ImageConverter() {
+  }
+
+  /**
+   * Copies the top left corner of a BufferedImage into a new image. The alpha of images with
+   * an alpha channel is kept, and other images are opaque. The pixels are copied in one pass,
+   * and the max value of the new image is 255, the range of the 8-bit channels it was read from.
+   * @param name the name of the new image
+   * @param source the image to copy
+   * @param width the width of the corner to copy
+   * @param height the height of the corner to copy
+   * @return the new image
+   * @throws IllegalArgumentException if the source is null or smaller than the corner
+   */
+  public static WritableImage fromBufferedImage(String name, BufferedImage source, int width,
+                                                int height) throws IllegalArgumentException {
+    if (source == null) {
+      throw new IllegalArgumentException("Image to convert is null.");
+    }
+    if (width > source.getWidth() || height > source.getHeight()) {
+      throw new IllegalArgumentException("Image is smaller than " + width + "x" + height + ".");
+    }
+    RowReader reader = readerFor(source, width);
+    int[] row = new int[width];
+    WritableImage image = ImageUtil.createRaster(name, width, height, 255);
+    boolean opaque = !source.getColorModel().hasAlpha();
+    for (int y = 0; y < height; y++) {
+      reader.read(y, row);
+      if (opaque) {
+        for (int x = 0; x < width; x++) {
+          row[x] |= 0xFF000000;
+        }
+      }
+      image.setRow(y, row, 0);
+    }
+    return image;
+  }
+
+  /**
+   * Copies an image into a new BufferedImage with packed RGB pixels, ready to be written by
+   * ImageIO. Each row is copied straight into the data buffer.
+   * @param image the image to copy
+   * @return the new BufferedImage
+   * @throws IllegalArgumentException if the image is null
+   */
+  public static BufferedImage toBufferedImage(Image image) throws IllegalArgumentException {
+    if (image == null) {
+      throw new IllegalArgumentException("Image to convert is null.");
+    }
+    int width = image.getWidth();
+    BufferedImage result = new BufferedImage(width, image.getHeight(),
+            BufferedImage.TYPE_INT_RGB);
+    int[] data = ((DataBufferInt) result.getRaster().getDataBuffer()).getData();
+    for (int y = 0; y < image.getHeight(); y++) {
+      image.getRow(y, data, y * width);
+    }
+    return result;
+  }
+
+  /**
+   * Returns an opaque BufferedImage showing the given image, for drawing on screen. An image
+   * stored as a packed ARGB array is shared rather than copied, so the result is made in
+   * constant time and shows later changes to the image. A deferred image is evaluated first,
+   * so its result is shared. Other images are copied.
+   * @param image the image to show
+   * @return the BufferedImage
+   * @throws IllegalArgumentException if the image is null
+   */
+  public static BufferedImage asBufferedImage(Image image) throws IllegalArgumentException {
+    if (image instanceof DeferredImage) {
+      image = ((DeferredImage) image).evaluate();
+    }
+    if (!(image instanceof RasterImage) || image.getWidth() == 0 || image.getHeight() == 0) {
+      return toBufferedImage(image);
+    }
+    RasterImage raster = (RasterImage) image;
+    int[] data = raster.getData();
+    DataBufferInt buffer = new DataBufferInt(data, data.length - raster.getOffset(),
+            raster.getOffset());
+    DirectColorModel rgb = new DirectColorModel(24, 0xFF0000, 0xFF00, 0xFF);
+    WritableRaster shared = Raster.createWritableRaster(new SinglePixelPackedSampleModel(
+            DataBuffer.TYPE_INT, raster.getWidth(), raster.getHeight(), raster.getStride(),
+            rgb.getMasks()), buffer, null);
+    return new BufferedImage(rgb, shared, false, null);
+  }
+
+  // the fastest way to read rows of the given image as packed ARGB values
+  private static RowReader readerFor(BufferedImage source, int width) {
+    Raster raster = source.getRaster();
+    int translateX = raster.getSampleModelTranslateX();
+    int translateY = raster.getSampleModelTranslateY();
+    switch (source.getType()) {
+      case BufferedImage.TYPE_INT_RGB:
+      case BufferedImage.TYPE_INT_ARGB: {
+        int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+        int offset = raster.getDataBuffer().getOffset();
+        int stride = ((SinglePixelPackedSampleModel) raster.getSampleModel())
+                .getScanlineStride();
+        return (y, row) -> System.arraycopy(data,
+                offset + (y - translateY) * stride - translateX, row, 0, width);
+      }
+      case BufferedImage.TYPE_3BYTE_BGR:
+      case BufferedImage.TYPE_4BYTE_ABGR: {
+        byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+        ComponentSampleModel model = (ComponentSampleModel) raster.getSampleModel();
+        int offset = raster.getDataBuffer().getOffset();
+        int stride = model.getScanlineStride();
+        int pixelStride = model.getPixelStride();
+        int[] bands = model.getBandOffsets();
+        boolean alpha = bands.length > 3;
+        return (y, row) -> {
+          int p = offset + (y - translateY) * stride - translateX * pixelStride;
+          for (int x = 0; x < width; x++, p += pixelStride) {
+            int argb = RasterImage.pack(data[p + bands[0]] & 0xFF, data[p + bands[1]] & 0xFF,
+                    data[p + bands[2]] & 0xFF);
+            row[x] = alpha ? (argb & 0x00FFFFFF) | (data[p + bands[3]] << 24) : argb;
+          }
+        };
+      }
+      default:
+        return (y, row) -> source.getRGB(0, y, width, 1, row, 0, width);
+    }
+  }
+
+  /**
+   * Reads one row of a BufferedImage as packed ARGB values.
+   */
+  private interface RowReader {
+    void read(int y, int[] row);
+  }
+}
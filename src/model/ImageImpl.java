@@ -37,6 +37,18 @@ public class ImageImpl implements Image {
     return this.pixels[col][row];
   }
 
+  @Override
+  public int getArgb(int x, int y) {
+    return this.pixels[y][x].getColor().getRGB();
+  }
+
+  @Override
+  public void getRow(int y, int[] dest, int destOffset) {
+    for (int x = 0; x < this.getWidth(); x++) {
+      dest[destOffset + x] = this.pixels[y][x].getColor().getRGB();
+    }
+  }
+
   @Override
   public int getMaxValue() {
     return this.maxValue;
@@ -29,6 +29,18 @@ public class ImageLayer implements Image {
     return pixels[row][col];
   }
 
+  @Override
+  public int getArgb(int x, int y) {
+    return pixels[y][x].getColor().getRGB();
+  }
+
+  @Override
+  public void getRow(int y, int[] dest, int destOffset) {
+    for (int x = 0; x < this.getWidth(); x++) {
+      dest[destOffset + x] = pixels[y][x].getColor().getRGB();
+    }
+  }
+
   @Override
   public int getMaxValue() {
     return 0;
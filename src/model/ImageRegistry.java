@@ -0,0 +1,334 @@
+package model;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.management.NotificationEmitter;
+
+/**
+ * Holds the named images of a model. Once the images held in memory go over a size ceiling,
+ * the least recently used ones are written to a scratch directory and dropped from memory, and
+ * read back the next time they are asked for. When the heap is nearly full after a garbage
+ * collection, every registry with a ceiling spills half of its images early. Cached filter
+ * results count toward the ceiling too: the cache may only use what the images leave free.
+ */
+class ImageRegistry {
+  private static final int MAGIC = 0x52415354;
+  private static final int HEADER_BYTES = 16;
+
+  private final LinkedHashMap<String, Entry> entries;
+  private long ceiling;
+  private Path scratchDir;
+  private FilterCache cache;
+
+  /**
+   * Constructs an empty registry without a ceiling.
+   */
+  ImageRegistry() {
+    this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    this.ceiling = Long.MAX_VALUE;
+  }
+
+  /**
+   * Sets the cache of filter results that shares the ceiling with the images.
+   * @param cache the cache
+   */
+  synchronized void setCache(FilterCache cache) {
+    this.cache = cache;
+    this.spillOver(this.ceiling, null);
+  }
+
+  /**
+   * Sets the largest total size of the images kept in memory, and starts listening for heap
+   * pressure. Images over the ceiling are spilled right away.
+   * @param bytes the ceiling in bytes
+   * @throws IllegalArgumentException if the ceiling is negative
+   */
+  synchronized void setCeiling(long bytes) throws IllegalArgumentException {
+    if (bytes < 0) {
+      throw new IllegalArgumentException("Memory ceiling cannot be negative.");
+    }
+    this.ceiling = bytes;
+    HeapMonitor.register(this);
+    this.spillOver(this.ceiling, null);
+  }
+
+  /**
+   * Adds an image under the given name, replacing any image with that name.
+   * @param name the name of the image
+   * @param image the image
+   */
+  synchronized void put(String name, Image image) {
+    Entry old = this.entries.put(name, new Entry(image));
+    if (old != null) {
+      old.deleteFile();
+    }
+    this.spillOver(this.ceiling, name);
+  }
+
+  /**
+   * Returns the image with the given name, reading it back from disk if it was spilled.
+   * @param name the name of the image
+   * @return the image, or null if there is no image with that name
+   * @throws IllegalStateException if a spilled image cannot be read back
+   */
+  synchronized Image get(String name) throws IllegalStateException {
+    Entry entry = this.entries.get(name);
+    if (entry == null) {
+      return null;
+    }
+    if (entry.image == null) {
+      try {
+        entry.image = readRaster(entry.file, name);
+      } catch (IOException e) {
+        throw new IllegalStateException("Unable to read back image " + name + ": "
+                + e.getMessage());
+      }
+      this.spillOver(this.ceiling, name);
+    }
+    return entry.image;
+  }
+
+  /**
+   * Returns whether there is an image with the given name.
+   * @param name the name of the image
+   * @return true if the image exists, in memory or on disk
+   */
+  synchronized boolean containsKey(String name) {
+    return this.entries.containsKey(name);
+  }
+
+  /**
+   * Returns whether the image with the given name is currently on disk only.
+   * @param name the name of the image
+   * @return true if the image has been spilled
+   */
+  synchronized boolean isSpilled(String name) {
+    Entry entry = this.entries.get(name);
+    return entry != null && entry.image == null;
+  }
+
+  /**
+   * Returns the total size of the images currently in memory.
+   * @return the size in bytes
+   */
+  synchronized long residentBytes() {
+    long total = 0;
+    for (Entry entry : this.entries.values()) {
+      total += sizeOf(entry.image);
+    }
+    return total;
+  }
+
+  // spills images, least recently used first, until at most limit bytes are in memory, and
+  // leaves the cache whatever is left under the limit
+  private void spillOver(long limit, String keep) {
+    long resident = this.residentBytes();
+    Iterator<Map.Entry<String, Entry>> it = this.entries.entrySet().iterator();
+    while (resident > limit && it.hasNext()) {
+      Map.Entry<String, Entry> next = it.next();
+      Entry entry = next.getValue();
+      long size = sizeOf(entry.image);
+      if (size == 0 || next.getKey().equals(keep)) {
+        continue;
+      }
+      try {
+        entry.spill(this.scratchDir());
+      } catch (IOException e) {
+        // keep the image in memory, the disk is not usable
+        break;
+      }
+      resident -= size;
+    }
+    if (this.cache != null) {
+      this.cache.setMemoryLimit(limit == Long.MAX_VALUE ? limit : limit - resident);
+    }
+  }
+
+  // spills half of the images in memory, called when the heap is nearly full
+  private synchronized void relieve() {
+    if (this.ceiling != Long.MAX_VALUE) {
+      this.spillOver(this.residentBytes() / 2, null);
+    }
+  }
+
+  private Path scratchDir() throws IOException {
+    if (this.scratchDir == null) {
+      this.scratchDir = Files.createTempDirectory("collage-images");
+      this.scratchDir.toFile().deleteOnExit();
+    }
+    return this.scratchDir;
+  }
+
+  // the number of bytes of pixels an image holds in memory, 0 if it is not computed yet or
+  // already lives in a file
+  private static long sizeOf(Image image) {
+    if (image instanceof TiledImage) {
+      return 0;
+    }
+    if (image instanceof WritableImage
+            || (image instanceof DeferredImage && ((DeferredImage) image).isEvaluated())) {
+      return 4L * image.getWidth() * image.getHeight();
+    }
+    return 0;
+  }
+
+  /**
+   * Writes an image as a header of magic number, width, height and max value followed by the
+   * packed ARGB values row by row, all as big-endian ints.
+   */
+  private static void writeRaster(Image image, Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+      header.putInt(MAGIC).putInt(image.getWidth()).putInt(image.getHeight())
+              .putInt(image.getMaxValue()).flip();
+      writeFully(channel, header);
+      int[] row = new int[image.getWidth()];
+      ByteBuffer bytes = ByteBuffer.allocate(4 * image.getWidth());
+      IntBuffer ints = bytes.asIntBuffer();
+      for (int y = 0; y < image.getHeight(); y++) {
+        image.getRow(y, row, 0);
+        ints.clear();
+        ints.put(row);
+        bytes.clear();
+        writeFully(channel, bytes);
+      }
+    }
+  }
+
+  // reads an image written by writeRaster
+  private static WritableImage readRaster(Path file, String name) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+      readFully(channel, header);
+      header.flip();
+      if (header.getInt() != MAGIC) {
+        throw new IOException("Not a raster file: " + file);
+      }
+      int width = header.getInt();
+      int height = header.getInt();
+      int maxValue = header.getInt();
+      WritableImage image = ImageUtil.createRaster(name, width, height, maxValue);
+      ByteBuffer bytes = ByteBuffer.allocate(4 * width);
+      int[] row = new int[width];
+      for (int y = 0; y < height; y++) {
+        bytes.clear();
+        readFully(channel, bytes);
+        bytes.flip();
+        bytes.asIntBuffer().get(row);
+        image.setRow(y, row, 0);
+      }
+      return image;
+    }
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) < 0) {
+        throw new IOException("Raster file ended early.");
+      }
+    }
+  }
+
+  /**
+   * An image in the registry, held in memory, on disk, or both.
+   */
+  private static final class Entry {
+    private Image image;
+    private Path file;
+
+    private Entry(Image image) {
+      this.image = image;
+    }
+
+    // writes the image to disk unless it is already there, then drops it from memory
+    private void spill(Path dir) throws IOException {
+      if (this.file == null) {
+        Path created = Files.createTempFile(dir, "image", ".raster");
+        created.toFile().deleteOnExit();
+        writeRaster(this.image, created);
+        this.file = created;
+      }
+      this.image = null;
+    }
+
+    private void deleteFile() {
+      if (this.file != null) {
+        try {
+          Files.deleteIfExists(this.file);
+        } catch (IOException e) {
+          // the file is also deleted when the program exits
+        }
+      }
+    }
+  }
+
+  /**
+   * Listens for the heap still being nearly full after a garbage collection, and asks every
+   * registry with a ceiling to spill early.
+   */
+  private static final class HeapMonitor {
+    private static final double THRESHOLD = 0.8;
+    private static final List<WeakReference<ImageRegistry>> REGISTRIES = new ArrayList<>();
+    private static boolean listening;
+
+    private static synchronized void register(ImageRegistry registry) {
+      REGISTRIES.removeIf(ref -> ref.get() == null);
+      for (WeakReference<ImageRegistry> ref : REGISTRIES) {
+        if (ref.get() == registry) {
+          return;
+        }
+      }
+      REGISTRIES.add(new WeakReference<>(registry));
+      if (!listening) {
+        listening = true;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+          if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported()
+                  && pool.getCollectionUsageThreshold() == 0 && pool.getUsage().getMax() > 0) {
+            pool.setCollectionUsageThreshold((long) (pool.getUsage().getMax() * THRESHOLD));
+          }
+        }
+        NotificationEmitter emitter = (NotificationEmitter) ManagementFactory.getMemoryMXBean();
+        emitter.addNotificationListener((notification, handback) -> relieveAll(),
+            notification -> MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED
+                    .equals(notification.getType()), null);
+      }
+    }
+
+    private static void relieveAll() {
+      List<ImageRegistry> live = new ArrayList<>();
+      synchronized (HeapMonitor.class) {
+        for (WeakReference<ImageRegistry> ref : REGISTRIES) {
+          ImageRegistry registry = ref.get();
+          if (registry != null) {
+            live.add(registry);
+          }
+        }
+      }
+      for (ImageRegistry registry : live) {
+        registry.relieve();
+      }
+    }
+  }
+}
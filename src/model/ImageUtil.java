@@ -5,16 +5,19 @@ import controller.CollageControllerImpl;
 import view.CollageView;
 import view.CollageViewImpl;
 
-import java.awt.Color;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.Scanner;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 
 /**
@@ -23,49 +26,56 @@ import java.util.Scanner;
 public class ImageUtil {
 
   /**
-   * Read an image file in the PPM format and print the colors.
-   *
-   * @param filename the path of the file.
+   * The number of pixels at or above which new images are stored outside the Java heap.
    */
-  public static Image readPPM(String filename) throws FileNotFoundException {
-    Scanner sc;
+  public static final int OFF_HEAP_THRESHOLD = 1 << 22;
 
-    sc = new Scanner(new FileInputStream(filename));
+  /**
+   * Images with at least this many pixels are stored as tiles in a memory-mapped file.
+   */
+  public static final int TILED_THRESHOLD = 1 << 27;
 
-    StringBuilder builder = new StringBuilder();
-    // read the file line by line, and populate a string. This will throw away any comment lines
-    while (sc.hasNextLine()) {
-      String s = sc.nextLine();
-      if (s.charAt(0) != '#') {
-        builder.append(s).append(System.lineSeparator());
-      }
+  /**
+   * Creates a blank image to write pixels into. Images with at least OFF_HEAP_THRESHOLD pixels
+   * are stored outside the Java heap, and images with at least TILED_THRESHOLD pixels are stored
+   * in a memory-mapped file.
+   * @param name the name of the image
+   * @param width the width in pixels
+   * @param height the height in pixels
+   * @param maxValue the maximum RGB value of each pixel
+   * @return the blank image
+   * @throws IllegalArgumentException if the dimensions are invalid
+   */
+  public static WritableImage createRaster(String name, int width, int height, int maxValue)
+          throws IllegalArgumentException {
+    if ((long) width * height >= TILED_THRESHOLD) {
+      return new TiledImage(name, width, height, maxValue);
     }
-
-    // now set up the scanner to read from the string we just built
-    sc = new Scanner(builder.toString());
-
-    String token;
-
-    token = sc.next();
-    if (!token.equals("P3")) {
-      System.out.println("Invalid PPM file: plain RAW file should begin with P3");
+    if ((long) width * height >= OFF_HEAP_THRESHOLD) {
+      return new OffHeapImage(name, width, height, maxValue);
     }
-    int width = sc.nextInt();
-    int height = sc.nextInt();
-    int maxValue = sc.nextInt();
-
-
+    return new RasterImage(name, width, height, maxValue);
+  }
 
-    Pixel[][] pixels = new Pixel[height][width];
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        int r = sc.nextInt();
-        int g = sc.nextInt();
-        int b = sc.nextInt();
-        pixels[i][j] = new PixelImpl(new Color(r, g, b));
-      }
+  /**
+   * Read an image file in the plain (P3) or raw (P6) PPM format. Plain files are parsed in a
+   * single pass, with comments allowed anywhere between values, and raw files are
+   * memory-mapped.
+   *
+   * @param filename the path of the file.
+   * @return the image
+   * @throws FileNotFoundException if the file does not exist
+   * @throws IllegalArgumentException if the file cannot be read or is not a valid PPM image
+   */
+  public static Image readPPM(String filename) throws FileNotFoundException {
+    try (FileChannel channel = new FileInputStream(filename).getChannel();
+         PpmReader in = new PpmReader(channel)) {
+      return in.readImage("");
+    } catch (FileNotFoundException e) {
+      throw e;
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Unable to read " + filename, e);
     }
-    return new ImageImpl("", pixels, maxValue);
   }
 
   /**
@@ -75,38 +85,190 @@ public class ImageUtil {
    *
    * @param image    the image to save
    * @param filename the name to use, including the path
-   * @throws IOException if an I/O error occurs writing to or creating the file,
-   *                     or the text cannot be encoded using the specified charset
+   * @throws IOException if an I/O error occurs writing to or creating the file
    */
   public static void savePPM(Image image, String filename) throws IOException {
-    StringBuilder ppm = new StringBuilder();
-    ppm.append("P3").append(System.lineSeparator());
-    ppm.append(image.getWidth())
-            .append(" ")
-            .append(image.getHeight())
-            .append(System.lineSeparator())
-            .append(image.getMaxValue())
-            .append(System.lineSeparator());
-    for (int i = 0; i < image.getHeight(); i++) {
-      for (int j = 0; j < image.getWidth(); j++) {
-        int r = image.getPixel(i, j).getRed();
-        int g = image.getPixel(i, j).getGreen();
-        int b = image.getPixel(i, j).getBlue();
-        ppm.append(r).append(System.lineSeparator());
-        ppm.append(g).append(System.lineSeparator());
-        ppm.append(b).append(System.lineSeparator());
+    savePPM(image, filename, 1);
+  }
+
+  /**
+   * Saves the provided image as a ppm file, streaming it a row at a time with the given number
+   * of channel values on each line.
+   *
+   * @param image         the image to save
+   * @param filename      the name to use, including the path
+   * @param valuesPerLine the number of channel values on each line
+   * @throws IOException if an I/O error occurs writing to or creating the file
+   * @throws IllegalArgumentException if valuesPerLine is less than 1
+   */
+  public static void savePPM(Image image, String filename, int valuesPerLine)
+          throws IOException, IllegalArgumentException {
+    if (valuesPerLine < 1) {
+      throw new IllegalArgumentException("At least one value is needed per line.");
+    }
+    try (FileChannel out = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      new PpmWriter(out, valuesPerLine).write(image);
+    }
+  }
+
+  /**
+   * Saves the provided image as a raw (P6) ppm file. Images with a max value above 255 are
+   * written with 16-bit samples, scaled up from the 8 bits stored per channel.
+   *
+   * @param image    the image to save
+   * @param filename the name to use, including the path
+   * @throws IOException if an I/O error occurs writing to or creating the file
+   */
+  public static void saveRawPPM(Image image, String filename) throws IOException {
+    int width = image.getWidth();
+    int maxValue = image.getMaxValue();
+    int sampleBytes = maxValue > 255 ? 2 : 1;
+    try (FileChannel out = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      writeFully(out, ByteBuffer.wrap(("P6\n" + width + " " + image.getHeight() + "\n"
+              + maxValue + "\n").getBytes(StandardCharsets.US_ASCII)));
+      int[] row = new int[width];
+      ByteBuffer samples = ByteBuffer.allocate(3 * sampleBytes * width);
+      for (int i = 0; i < image.getHeight(); i++) {
+        image.getRow(i, row, 0);
+        samples.clear();
+        for (int argb : row) {
+          for (int shift = 16; shift >= 0; shift -= 8) {
+            int channel = (argb >> shift) & 0xFF;
+            if (sampleBytes == 1) {
+              samples.put((byte) channel);
+            } else {
+              samples.putShort((short) ((channel * maxValue + 127) / 255));
+            }
+          }
+        }
+        samples.flip();
+        writeFully(out, samples);
+      }
+    }
+  }
+
+  /**
+   * Saves the provided image in the given format: plain ppm for ppm, raw ppm for raw.
+   *
+   * @param image    the image to save
+   * @param filename the name to use, including the path
+   * @param type     the format to save in
+   * @throws IOException if an I/O error occurs writing to or creating the file
+   * @throws IllegalArgumentException if the format is not supported
+   */
+  public static void save(Image image, String filename, FileType type)
+          throws IOException, IllegalArgumentException {
+    if (type == FileType.ppm) {
+      savePPM(image, filename);
+    } else if (type == FileType.raw) {
+      saveRawPPM(image, filename);
+    } else {
+      throw new IllegalArgumentException("Unsupported file type: " + type);
+    }
+  }
 
+  /**
+   * Runs filters over a ppm file without loading it, reading each row, filtering it and
+   * writing it to a plain ppm file before reading further than the filters need. Pointwise
+   * filters need only the row itself, and blur and sharpen keep a window of the rows around
+   * it, so memory use depends on the width of the image but not its height.
+   *
+   * @param input   the path of the plain or raw ppm file to read
+   * @param output  the path of the plain ppm file to write
+   * @param filters the names of the filters to apply, first to last, e.g. red-component
+   * @throws FileNotFoundException if the input file does not exist
+   * @throws IOException if an I/O error occurs reading or writing the files
+   * @throws IllegalArgumentException if a filter does not exist or the input is not a valid
+   *                                  ppm file
+   */
+  public static void streamPPM(String input, String output, List<String> filters)
+          throws IOException, IllegalArgumentException {
+    if (input == null || output == null || filters == null) {
+      throw new IllegalArgumentException("Arguments are null");
+    }
+    List<Object> stages = new ArrayList<>();
+    for (String filter : filters) {
+      switch (filter.toLowerCase()) {
+        case "blur":
+          stages.add(ConvolutionKernel.BLUR);
+          break;
+        case "sharpen":
+          stages.add(ConvolutionKernel.SHARPEN);
+          break;
+        default:
+          stages.add(PixelKernels.forName(filter));
+      }
+    }
+    try (FileChannel channel = new FileInputStream(input).getChannel();
+         PpmReader in = new PpmReader(channel);
+         FileChannel out = FileChannel.open(Paths.get(output), StandardOpenOption.CREATE,
+                 StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      in.readHeader();
+      int width = in.getWidth();
+      PpmWriter writer = new PpmWriter(out, 1);
+      writer.writeHeader(width, in.getHeight(), in.getMaxValue());
+      RowSink sink = streamStages(stages, width, in.getHeight(),
+              row -> writer.writeRow(row, 0, width));
+      int[] row = new int[width];
+      for (int i = 0; i < in.getHeight(); i++) {
+        in.readRow(row);
+        sink.accept(row);
       }
+      writer.finish();
+    }
+  }
+
+  // chains the stages in front of the sink, fusing each run of pointwise kernels
+  private static RowSink streamStages(List<Object> stages, int width, int height, RowSink sink) {
+    int end = stages.size();
+    while (end > 0) {
+      Object last = stages.get(end - 1);
+      if (last instanceof ConvolutionKernel) {
+        sink = new SlidingWindow((ConvolutionKernel) last, width, height, sink);
+        end--;
+        continue;
+      }
+      int start = end;
+      while (start > 0 && stages.get(start - 1) instanceof PixelKernel) {
+        start--;
+      }
+      List<PixelKernel> run = new ArrayList<>();
+      for (Object stage : stages.subList(start, end)) {
+        run.add((PixelKernel) stage);
+      }
+      RowKernel kernel = FusedKernel.of(run);
+      RowSink next = sink;
+      int[] filtered = new int[width];
+      // pointwise kernels do not depend on the index of the row
+      sink = row -> {
+        kernel.applyRow(0, row, 0, filtered, 0, width);
+        next.accept(filtered);
+      };
+      end = start;
+    }
+    return sink;
+  }
+
+  private static void writeFully(FileChannel out, ByteBuffer bytes) throws IOException {
+    while (bytes.hasRemaining()) {
+      out.write(bytes);
     }
-    Files.writeString(Paths.get(filename), ppm.toString(), StandardCharsets.UTF_8);
   }
 
   /**
    * Runs the program.
    *
-   * @param args command line arguments, not yet supported
+   * @param args command line arguments: -l file, then -e filter for each filter, then -s file.
+   *             Starting with -stream filters the file a row at a time instead of loading it,
+   *             which supports the pointwise filters, blur and sharpen.
    */
   public static void main(String[] args) {
+    if (args.length > 0 && args[0].equalsIgnoreCase("-stream")) {
+      stream(Arrays.copyOfRange(args, 1, args.length));
+      return;
+    }
     Readable r;
     if (args.length > 0) {
       StringBuilder commands = new StringBuilder();
@@ -140,4 +302,28 @@ public class ImageUtil {
     CollageController c = new CollageControllerImpl(m, v, r);
     c.run();
   }
+
+  // runs the -l/-e/-s command line a row at a time
+  private static void stream(String[] args) {
+    if (args.length < 4 || !args[0].equalsIgnoreCase("-l")) {
+      throw new IllegalArgumentException("Command line must start by loading file with -l");
+    }
+    if (!args[args.length - 2].equalsIgnoreCase("-s")) {
+      throw new IllegalArgumentException("Command line must end by saving file with -s filename");
+    }
+    List<String> filters = new ArrayList<>();
+    for (int i = 2; i < args.length - 2; i++) {
+      if (args[i].equalsIgnoreCase("-e")) {
+        i++;
+        filters.add(args[i]);
+      }
+    }
+    String output = args[args.length - 1] + ".ppm";
+    try {
+      streamPPM(args[1], output, filters);
+      System.out.println("Streamed " + args[1] + " to " + output);
+    } catch (IOException e) {
+      System.out.println("Unable to stream " + args[1] + ": " + e.getMessage());
+    }
+  }
 }
\ No newline at end of file
@@ -1,6 +1,6 @@
 package model;
 
-import java.util.Map;
+import java.util.Set;
 
 public interface Layer {
 
@@ -10,21 +10,22 @@ public interface Layer {
    * the trailing parts are not displayed.
    * If it is found that an image is overlapping another image, it will
    * be modified pixel by pixel to account for the newer image.
+   * @param name the name of the image in the model.
    * @param image the image to be added.
    * @param xCoord the x coordinate of the image to be added.
    * @param yCoord the y coordinate of the image to be added.
-   * @throws IllegalArgumentException if coordinate values:
-   *                                    less than or equal to 0
-   *                                    greater than or equal to the total dimensions of the image
+   * @throws IllegalArgumentException if the name or image is null or the coordinate values are:
+   *                                    less than 0
+   *                                    greater than or equal to the total dimensions of the layer
    */
-  public void placeImage(Image image, int xCoord, int yCoord) throws IllegalArgumentException;
+  public void placeImage(String name, Image image, int xCoord, int yCoord)
+          throws IllegalArgumentException;
 
   /**
-   * Returns the images in this layer.
-   * @return a hashmap of images stored in this layer.
+   * Returns the names of the images placed on this layer, in the order they were first placed.
+   * @return the names, which cannot be changed through the returned set
    */
-
-  public Map<String, Image> getImages();
+  public Set<String> getImageNames();
 
   /**
    * Returns a specific pixel in the layer, given a width and height.
@@ -1,17 +1,32 @@
 package model;
 
 import java.awt.Color;
-import java.util.HashMap;
-import java.util.Map;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
- * Represents a layer of images.
+ * Represents a layer of images. The pixels are stored as premultiplied packed ARGB values,
+ * outside the Java heap for large layers, or as tiles in a memory-mapped file for layers too
+ * large for memory. Images are blended onto the layer with {@link Compositor}. A layer can
+ * carry a filter, which is applied to its pixels as they are read for compositing rather than
+ * to the stored pixels.
  */
-public class LayerImpl {
-  private final Map<String, Image> images;
-  private final Pixel[][] layerPixels;
+public class LayerImpl implements Layer {
+  // the names the placed images have in the model, which holds the images themselves
+  private final Set<String> imageNames;
+  private final WritableImage layerPixels;
   private final int height;
   private final int width;
+  // the areas changed since the composite was last brought up to date
+  private List<Rectangle> dirty;
+  // the filter applied when compositing, or null, and a row to filter straight pixels in
+  private PixelKernel filter;
+  private int[] straight;
 
   /**
    * Creates a new layer object.
@@ -19,15 +34,48 @@ public class LayerImpl {
    * @param width width
    */
   public LayerImpl(int width, int height) {
-    this.images = new HashMap<>();
+    this(width, height, false);
+  }
+
+  /**
+   * Creates a new layer object, optionally stored as tiles in a memory-mapped file. A tiled
+   * layer only takes space for the tiles that images are placed on.
+   * @param height height
+   * @param width width
+   * @param tiled true to store the layer as tiles
+   */
+  public LayerImpl(int width, int height, boolean tiled) {
+    this(width, height, tiled, 0xFFFFFFFF);
+  }
+
+  /**
+   * Creates a new layer object filled with the given color, optionally stored as tiles in a
+   * memory-mapped file.
+   * @param width width
+   * @param height height
+   * @param tiled true to store the layer as tiles
+   * @param background the straight ARGB value every pixel starts as, 0 for a transparent layer
+   */
+  public LayerImpl(int width, int height, boolean tiled, int background) {
+    this.imageNames = new LinkedHashSet<>();
     this.height = height;
     this.width = width;
-    this.layerPixels = new Pixel[width][height];
-    //this.totalLayer = new ImageLayer(width, height);
-
-    for (int i = 0; i < width; i++) {
+    this.dirty = new ArrayList<>();
+    int fill = Compositor.premultiply(background);
+    if (fill != 0) {
+      this.invalidate();
+    }
+    if (tiled) {
+      this.layerPixels = new TiledImage("", width, height, 255, fill);
+      return;
+    }
+    // new rasters start transparent
+    this.layerPixels = ImageUtil.createRaster("", width, height, 255);
+    if (fill != 0) {
+      int[] row = new int[width];
+      Arrays.fill(row, fill);
       for (int j = 0; j < height; j++) {
-        layerPixels[i][j] = new PixelImpl(new Color(255, 255, 255));
+        layerPixels.setRow(j, row, 0);
       }
     }
   }
@@ -36,58 +84,184 @@ public class LayerImpl {
    * Places the given image to the specified coordinates of the Layer.
    * If the size of the image extends beyond the dimensions of the layer,
    * the trailing parts are not displayed.
-   * If it is found that an image is overlapping another image, it will
-   * be modified pixel by pixel to account for the newer image.
+   * If it is found that an image is overlapping another image, the newer image is placed over
+   * it, blending translucent pixels with the pixels underneath.
+   * The layer only keeps the name of the image, not the image itself.
+   * @param name the name of the image in the model.
    * @param image the image to be added.
    * @param xCoord the x coordinate of the image to be added.
    * @param yCoord the y coordinate of the image to be added.
-   * @throws IllegalArgumentException if coordinate values:
-   *                                    less than or equal to 0
-   *                                    greater than or equal to the total dimensions of the image
+   * @throws IllegalArgumentException if the name or image is null or the coordinate values are:
+   *                                    less than 0
+   *                                    greater than or equal to the total dimensions of the layer
    */
-  public void placeImage(Image image, int xCoord, int yCoord) throws IllegalArgumentException {
-    if (!images.containsKey(image.getName())) {
-      throw new IllegalArgumentException("Cannot find image: " + image.getName());
+  @Override
+  public void placeImage(String name, Image image, int xCoord, int yCoord)
+          throws IllegalArgumentException {
+    if (name == null || image == null) {
+      throw new IllegalArgumentException("Image to place is null.");
     }
-    if (xCoord <= 0 || xCoord > this.width) {
+    if (xCoord < 0 || xCoord >= this.width) {
       throw new IllegalArgumentException("x coordinate must be within the bounds of the image.");
     }
-    if (yCoord <= 0 || yCoord > this.height) {
+    if (yCoord < 0 || yCoord >= this.height) {
       throw new IllegalArgumentException("y coordinate must be within the bounds of the image.");
     }
-    for (int i = xCoord; i < xCoord + image.getWidth(); i++) {
-      for (int j = yCoord; j > yCoord + image.getHeight(); j++) {
-        layerPixels[i][j].overlapWith(image.getPixel(i - xCoord, j - yCoord));
+    imageNames.add(name);
+    this.markDirty(new Rectangle(xCoord, yCoord, Math.min(image.getWidth(), this.width - xCoord),
+            Math.min(image.getHeight(), this.height - yCoord)));
+
+    // clip to the layer once, then copy opaque rows and blend the others
+    int visibleWidth = Math.min(image.getWidth(), this.width - xCoord);
+    int visibleHeight = Math.min(image.getHeight(), this.height - yCoord);
+    int[] source = new int[image.getWidth()];
+    int[] under = new int[visibleWidth];
+    for (int j = 0; j < visibleHeight; j++) {
+      image.getRow(j, source, 0);
+      if (isOpaque(source, visibleWidth)) {
+        // opaque pixels are the same premultiplied, and cover whatever is underneath
+        layerPixels.setSpan(xCoord, yCoord + j, source, 0, visibleWidth);
+      } else {
+        layerPixels.getSpan(xCoord, yCoord + j, under, 0, visibleWidth);
+        Compositor.overStraight(source, 0, under, 0, visibleWidth);
+        layerPixels.setSpan(xCoord, yCoord + j, under, 0, visibleWidth);
       }
     }
   }
 
+  // whether the first length pixels of the row all have an alpha of 255
+  private static boolean isOpaque(int[] row, int length) {
+    int alpha = 0xFF000000;
+    for (int i = 0; i < length; i++) {
+      alpha &= row[i];
+    }
+    return alpha == 0xFF000000;
+  }
+
   /**
-   * Returns the images in this layer.
-   * @return a hashmap of images stored in this layer.
+   * Returns the names of the images placed on this layer, in the order they were first placed.
+   * @return the names, which cannot be changed through the returned set
    */
-
-  public Map<String, Image> getImages() {
-    return this.images;
+  @Override
+  public Set<String> getImageNames() {
+    return Collections.unmodifiableSet(this.imageNames);
   }
 
   /**
-   * Returns a specific pixel in the layer, given a width and height.
+   * Returns a specific pixel in the layer, given a width and height. The pixel is a copy, so
+   * changing it does not change the layer.
    * @param x - row of the pixel
    * @param y - col of the pixel
    * @return a Pixel in the given row and col
    */
+  @Override
   public Pixel getPixel(int x, int y) throws IllegalArgumentException {
-    if (x > this.width || y > this.height || x < 0 || y < 0)  {
+    if (x >= this.width || y >= this.height || x < 0 || y < 0)  {
       throw new IllegalArgumentException("Dimensions out of bounds");
     }
-    return layerPixels[x][y];
+    return new PixelImpl(new Color(Compositor.unpremultiply(layerPixels.getArgb(x, y)), true));
+  }
+
+  /**
+   * Copies part of a row of the layer's premultiplied ARGB pixels into the given array, as
+   * they appear in the composite. If the layer has a filter, only the copied pixels are
+   * filtered.
+   * @param x the column of the first pixel
+   * @param y the index of the row
+   * @param dest the array to copy into
+   * @param destOffset the index in dest to copy the first pixel to
+   * @param length the number of pixels to copy
+   */
+  public void getSpan(int x, int y, int[] dest, int destOffset, int length) {
+    layerPixels.getSpan(x, y, dest, destOffset, length);
+    if (this.filter != null) {
+      this.filterSpan(y, dest, destOffset, length);
+    }
+  }
+
+  // filters premultiplied pixels as straight pixels, keeping their alpha
+  private void filterSpan(int y, int[] pixels, int offset, int length) {
+    if (this.straight == null) {
+      this.straight = new int[this.width];
+    }
+    for (int i = 0; i < length; i++) {
+      this.straight[i] = Compositor.unpremultiply(pixels[offset + i]);
+    }
+    this.filter.applyRow(y, this.straight, 0, this.straight, 0, length);
+    for (int i = 0; i < length; i++) {
+      int alpha = pixels[offset + i] & 0xFF000000;
+      pixels[offset + i] = alpha == 0 ? 0
+              : Compositor.premultiply((this.straight[i] & 0x00FFFFFF) | alpha);
+    }
+  }
+
+  /**
+   * Sets the filter applied to the layer when it is composited. The stored pixels are not
+   * changed, so the filter can be changed or removed later. Changing the filter marks the
+   * whole layer as changed.
+   * @param filter the filter, or null for none
+   */
+  public void setFilter(PixelKernel filter) {
+    if (filter != this.filter) {
+      this.filter = filter;
+      this.invalidate();
+    }
+  }
+
+  /**
+   * Returns the filter applied to the layer when it is composited.
+   * @return the filter, or null if there is none
+   */
+  public PixelKernel getFilter() {
+    return this.filter;
+  }
+
+  /**
+   * Marks the whole layer as changed, so the next composite redraws it.
+   */
+  public void invalidate() {
+    this.markDirty(new Rectangle(0, 0, this.width, this.height));
+  }
+
+  /**
+   * Returns the areas of the layer changed since the last call, and starts tracking changes
+   * afresh. The model calls this to bring its composite up to date.
+   * @return the changed areas, empty if nothing changed
+   */
+  public List<Rectangle> takeDirty() {
+    List<Rectangle> changed = this.dirty;
+    this.dirty = new ArrayList<>();
+    return changed;
+  }
+
+  private void markDirty(Rectangle area) {
+    addArea(this.dirty, area);
+  }
+
+  /**
+   * Adds an area to a list of areas, merging it with any area it overlaps so that the list
+   * never covers a pixel twice.
+   * @param areas the areas
+   * @param area the area to add
+   */
+  static void addArea(List<Rectangle> areas, Rectangle area) {
+    if (area.isEmpty()) {
+      return;
+    }
+    for (int i = 0; i < areas.size(); i++) {
+      if (areas.get(i).intersects(area)) {
+        area = area.union(areas.remove(i));
+        i = -1;
+      }
+    }
+    areas.add(area);
   }
 
   /**
    * Returns the width in pixels of this layer.
    * @return the width in pixels
    */
+  @Override
   public int getWidth() {
     return this.width;
   }
@@ -96,6 +270,7 @@ public class LayerImpl {
    * Returns the height in pixels of this layer.
    * @return the height in pixels
    */
+  @Override
   public int getHeight() {
     return this.height;
   }
@@ -0,0 +1,124 @@
+package model;
+
+import java.awt.Color;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * Represents an image whose packed ARGB values are stored in a direct buffer outside the Java
+ * heap, so large canvases do not count towards the heap size or slow down garbage collection.
+ * The buffer is released when the image is garbage collected. The JVM limits direct memory
+ * with -XX:MaxDirectMemorySize, which defaults to the maximum heap size.
+ */
+public class OffHeapImage implements WritableImage {
+  private final IntBuffer data;
+  private final int width;
+  private final int height;
+  private final int maxValue;
+  private final String name;
+
+  /**
+   * Constructs a blank, fully transparent image of the given size.
+   * @param name - name of the image
+   * @param width - the width in pixels
+   * @param height - the height in pixels
+   * @param maxValue - the maximum RGB value of each pixel
+   * @throws IllegalArgumentException if the size is negative or too large for one buffer
+   */
+  public OffHeapImage(String name, int width, int height, int maxValue)
+          throws IllegalArgumentException {
+    if (width < 0 || height < 0 || 4L * width * height > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Invalid off-heap image dimensions.");
+    }
+    this.data = ByteBuffer.allocateDirect(4 * width * height).order(ByteOrder.nativeOrder())
+            .asIntBuffer();
+    this.width = width;
+    this.height = height;
+    this.maxValue = maxValue;
+    this.name = name;
+  }
+
+  private OffHeapImage(String name, OffHeapImage other) {
+    this.data = other.data;
+    this.width = other.width;
+    this.height = other.height;
+    this.maxValue = other.maxValue;
+    this.name = name;
+  }
+
+  /**
+   * Returns the pixel at the designated location. The pixel is created on demand as a copy of
+   * the packed value, so changing it does not change this image.
+   * @param row - row of the pixel
+   * @param col - column of the pixel
+   * @return a pixel object
+   */
+  @Override
+  public Pixel getPixel(int row, int col) {
+    return new PixelImpl(new Color(this.getArgb(col, row), true));
+  }
+
+  @Override
+  public int getArgb(int x, int y) {
+    return this.data.get(y * this.width + x);
+  }
+
+  @Override
+  public void getRow(int y, int[] dest, int destOffset) {
+    IntBuffer row = this.data.duplicate();
+    row.position(y * this.width);
+    row.get(dest, destOffset, this.width);
+  }
+
+  @Override
+  public void setArgb(int x, int y, int argb) {
+    this.data.put(y * this.width + x, argb);
+  }
+
+  @Override
+  public void setRow(int y, int[] src, int srcOffset) {
+    IntBuffer row = this.data.duplicate();
+    row.position(y * this.width);
+    row.put(src, srcOffset, this.width);
+  }
+
+  @Override
+  public void getSpan(int x, int y, int[] dest, int destOffset, int length) {
+    IntBuffer span = this.data.duplicate();
+    span.position(y * this.width + x);
+    span.get(dest, destOffset, length);
+  }
+
+  @Override
+  public void setSpan(int x, int y, int[] src, int srcOffset, int length) {
+    IntBuffer span = this.data.duplicate();
+    span.position(y * this.width + x);
+    span.put(src, srcOffset, length);
+  }
+
+  @Override
+  public WritableImage withName(String name) {
+    return new OffHeapImage(name, this);
+  }
+
+  @Override
+  public int getMaxValue() {
+    return this.maxValue;
+  }
+
+  @Override
+  public int getWidth() {
+    return this.width;
+  }
+
+  @Override
+  public int getHeight() {
+    return this.height;
+  }
+
+  @Override
+  public String getName() {
+    return this.name;
+  }
+}
@@ -58,37 +58,38 @@ public class PixelImpl implements Pixel {
 
   @Override
   public void overlapWith(Pixel otherPixel) {
-    if (this.equals(otherPixel)) {
-      return;
-    }
-
-    int r = this.getRed();
-    int g = this.getGreen();
-    int b = this.getBlue();
-    int a = this.getAlpha();
-
-    int dr = otherPixel.getRed();
-    int dg = otherPixel.getGreen();
-    int db = otherPixel.getBlue();
-    int da = otherPixel.getAlpha();
-
-    double aPP = (a / 255. + da / 255. * (1 - a / 255.));
-    double aP = aPP * 255.;
-
-    int rP = (int) ((a / 255 * r + dr * (da / 255)) * (1 - a / 255) * (1 / aPP));
-    int gP = (int) ((a / 255 * g + dg * (da / 255)) * (1 - a / 255) * (1 / aPP));
-    int bP = (int) ((a / 255 * b + db * (da / 255)) * (1 - a / 255) * (1 / aPP));
-
-    this.color = new Color(rP, gP, bP);
-
+    int over = Compositor.over(Compositor.premultiply(otherPixel.getColor().getRGB()),
+            Compositor.premultiply(this.color.getRGB()));
+    this.color = new Color(Compositor.unpremultiply(over), true);
   }
 
+  /**
+   * Converts the pixel to HSL values. Kept for callers that want the values by name; filters
+   * use {@link #rgbToHsl(int, int, int, double[])} instead.
+   * @return a HashMap of HSL values under the keys "h", "s" and "l".
+   */
   @Override
   public HashMap<String, Double> convertRGBtoHSL() {
-    double componentMax = Math.max(this.getRed(), Math.max(this.getGreen(), this.getBlue()))
-            / 255.0;
-    double componentMin = Math.min(this.getRed(), Math.min(this.getGreen(), this.getBlue()))
-            / 255.0;
+    double[] values = new double[3];
+    rgbToHsl(this.getRed(), this.getGreen(), this.getBlue(), values);
+    HashMap<String, Double> hsl = new HashMap<>();
+    hsl.put("h", values[0]);
+    hsl.put("s", values[1]);
+    hsl.put("l", values[2]);
+    return hsl;
+  }
+
+  /**
+   * Converts RGB channels to HSL values without allocating. The hue is written to hsl[0] in
+   * degrees, and the saturation and lightness to hsl[1] and hsl[2], both from 0 to 1.
+   * @param red the red channel, 0-255
+   * @param green the green channel, 0-255
+   * @param blue the blue channel, 0-255
+   * @param hsl an array of at least three values to write into
+   */
+  public static void rgbToHsl(int red, int green, int blue, double[] hsl) {
+    double componentMax = Math.max(red, Math.max(green, blue)) / 255.0;
+    double componentMin = Math.min(red, Math.min(green, blue)) / 255.0;
     double delta = componentMax - componentMin;
 
     double lightness = (componentMax + componentMin) / 2;
@@ -100,28 +101,56 @@ public class PixelImpl implements Pixel {
     } else {
       saturation = delta / (1 - Math.abs(2 * lightness - 1));
       hue = 0;
-      if (componentMax == this.getRed()) {
-        hue = (this.getGreen() - this.getBlue()) / delta;
+      if (componentMax == red) {
+        hue = (green - blue) / delta;
         while (hue < 0) {
           hue += 6; //hue must be positive to find the appropriate modulus
         }
         hue = hue % 6;
-      } else if (componentMax == this.getGreen()) {
-        hue = (this.getBlue() - this.getRed()) / delta;
+      } else if (componentMax == green) {
+        hue = (blue - red) / delta;
         hue += 2;
-      } else if (componentMax == this.getBlue()) {
-        hue = (this.getRed() - this.getGreen()) / delta;
+      } else if (componentMax == blue) {
+        hue = (red - green) / delta;
         hue += 4;
       }
 
       hue = hue * 60;
     }
-    HashMap<String, Double> hsl = new HashMap<>();
-    hsl.put("h", hue);
-    hsl.put("s", saturation);
-    hsl.put("l", lightness);
-    return hsl;
+    hsl[0] = hue;
+    hsl[1] = saturation;
+    hsl[2] = lightness;
+  }
+
+  /**
+   * Converts an HSL representation where 0 <= H < 360, 0 <= S <= 1 and 0 <= L <= 1
+   * into a packed opaque RGB value. Channels outside 0-255, as a lightness outside 0-1 gives,
+   * are clamped.
+   * @param hue the hue in degrees
+   * @param saturation the saturation
+   * @param lightness the lightness
+   * @return the packed value
+   */
+  public static int hslToArgb(double hue, double saturation, double lightness) {
+    double r = convertFn(hue, saturation, lightness, 0) * 255;
+    double g = convertFn(hue, saturation, lightness, 8) * 255;
+    double b = convertFn(hue, saturation, lightness, 4) * 255;
+    return RasterImage.pack(clamp(r), clamp(g), clamp(b));
+  }
+
+  private static int clamp(double channel) {
+    return Math.max(0, Math.min(255, (int) channel));
+  }
+
+  /*
+   * Helper method that performs the translation from the HSL polygonal
+   * model to the more familiar RGB model
+   */
+  private static double convertFn(double hue, double saturation, double lightness, int n) {
+    double k = (n + (hue / 30)) % 12;
+    double a  = saturation * Math.min(lightness, 1 - lightness);
 
+    return lightness - a * Math.max(-1, Math.min(k - 3, Math.min(9 - k, 1)));
   }
 
 
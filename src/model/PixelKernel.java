@@ -0,0 +1,23 @@
+package model;
+
+/**
+ * Represents a filter where each output pixel only depends on the input pixel at the same
+ * position. Pixels are packed ARGB values as stored by {@link RasterImage}.
+ */
+public interface PixelKernel extends RowKernel {
+
+  /**
+   * Filters a single pixel.
+   * @param argb the original pixel
+   * @return the filtered pixel
+   */
+  int apply(int argb);
+
+  @Override
+  default void applyRow(int row, int[] src, int srcOffset, int[] dest, int destOffset,
+                        int length) {
+    for (int i = 0; i < length; i++) {
+      dest[destOffset + i] = this.apply(src[srcOffset + i]);
+    }
+  }
+}
@@ -0,0 +1,294 @@
+package model;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.function.DoubleBinaryOperator;
+
+/**
+ * Holds the built-in pointwise filters as kernels over packed ARGB values.
+ */
+public final class PixelKernels {
+  private static final int VALUE = 0;
+  private static final int LUMA = 1;
+  private static final int INTENSITY = 2;
+
+  // VectorKernels.applyRow, or null when the Vector API is unavailable or turned off
+  private static final MethodHandle VECTOR_ROW = findVectorRow();
+
+  /**
+   * Keeps only the red channel. The channel is taken from the blue value of the original pixel.
+   */
+  public static final PixelKernel RED_COMPONENT = argb -> RasterImage.pack(argb & 0xFF, 0, 0);
+
+  /**
+   * Keeps only the green channel.
+   */
+  public static final PixelKernel GREEN_COMPONENT = argb -> argb & 0xFF00FF00 | 0xFF000000;
+
+  /**
+   * Keeps only the blue channel.
+   */
+  public static final PixelKernel BLUE_COMPONENT = argb -> argb & 0xFF0000FF | 0xFF000000;
+
+  /**
+   * Adds the largest channel value to every channel.
+   */
+  public static final PixelKernel BRIGHTEN_VALUE = new ChannelKernel(VALUE, true,
+          argb -> brighten(argb, value(argb)));
+
+  /**
+   * Adds the luma to every channel.
+   */
+  public static final PixelKernel BRIGHTEN_LUMA = new ChannelKernel(LUMA, true,
+          argb -> brighten(argb, luma(argb)));
+
+  /**
+   * Adds the intensity to every channel.
+   */
+  public static final PixelKernel BRIGHTEN_INTENSITY = new ChannelKernel(INTENSITY, true,
+          argb -> brighten(argb, intensity(argb)));
+
+  /**
+   * Subtracts the largest channel value from every channel.
+   */
+  public static final PixelKernel DARKEN_VALUE = new ChannelKernel(VALUE, false,
+          argb -> darken(argb, value(argb)));
+
+  /**
+   * Subtracts the luma from every channel.
+   */
+  public static final PixelKernel DARKEN_LUMA = new ChannelKernel(LUMA, false,
+          argb -> darken(argb, luma(argb)));
+
+  /**
+   * Subtracts the intensity from every channel.
+   */
+  public static final PixelKernel DARKEN_INTENSITY = new ChannelKernel(INTENSITY, false,
+          argb -> darken(argb, intensity(argb)));
+
+  private PixelKernels() {
+  }
+
+  /**
+   * Returns the built-in filter with the given command name, for the filters that do not depend
+   * on the layers underneath.
+   * @param filter the name of the filter, e.g. red-component
+   * @return the kernel
+   * @throws IllegalArgumentException if there is no such filter
+   */
+  public static PixelKernel forName(String filter) throws IllegalArgumentException {
+    switch (filter.toLowerCase()) {
+      case "red-component":
+        return RED_COMPONENT;
+      case "green-component":
+        return GREEN_COMPONENT;
+      case "blue-component":
+        return BLUE_COMPONENT;
+      case "brighten-value":
+        return BRIGHTEN_VALUE;
+      case "brighten-luma":
+        return BRIGHTEN_LUMA;
+      case "brighten-intensity":
+        return BRIGHTEN_INTENSITY;
+      case "darken-value":
+        return DARKEN_VALUE;
+      case "darken-luma":
+        return DARKEN_LUMA;
+      case "darken-intensity":
+        return DARKEN_INTENSITY;
+      default:
+        throw new IllegalArgumentException("Unable to find filter: " + filter);
+    }
+  }
+
+  /**
+   * Returns a kernel that multiplies the lightness of every pixel by dL. White pixels are
+   * left unchanged.
+   * @param dL the lightness of the composite image underneath, or the increment to darken by
+   * @return the kernel
+   * @throws IllegalArgumentException if dL is negative or not finite
+   */
+  public static PixelKernel darkenMultiply(double dL) throws IllegalArgumentException {
+    checkIncrement(dL);
+    return new LightnessKernel(dL, (lightness, l) -> lightness * l);
+  }
+
+  /**
+   * Returns a kernel that screens the lightness of every pixel with dL. White pixels are
+   * screened with 1.
+   * @param dL the lightness of the composite image underneath, or the increment to brighten by
+   * @return the kernel
+   * @throws IllegalArgumentException if dL is negative or not finite
+   */
+  public static PixelKernel brightenScreen(double dL) throws IllegalArgumentException {
+    checkIncrement(dL);
+    return new LightnessKernel(dL, (lightness, l) -> 1 - ((1 - lightness) * (1 - l)));
+  }
+
+  private static void checkIncrement(double dL) throws IllegalArgumentException {
+    if (!(dL >= 0) || Double.isInfinite(dL)) {
+      throw new IllegalArgumentException("Increment must be a non-negative number: " + dL);
+    }
+  }
+
+  /**
+   * Returns a kernel that takes the per-channel absolute difference with the given image.
+   * @param other the image to difference against, at least as large as the filtered image
+   * @return the kernel
+   */
+  public static RowKernel difference(Image other) {
+    // one row of the other image per thread, as bands of the image are filtered in parallel
+    ThreadLocal<int[]> otherRows = ThreadLocal.withInitial(() -> new int[other.getWidth()]);
+    return (row, src, srcOffset, dest, destOffset, length) -> {
+      int[] otherRow = otherRows.get();
+      other.getRow(row, otherRow, 0);
+      for (int i = 0; i < length; i++) {
+        int a = src[srcOffset + i];
+        int b = otherRow[i];
+        dest[destOffset + i] = RasterImage.pack(
+                Math.abs(((a >> 16) & 0xFF) - ((b >> 16) & 0xFF)),
+                Math.abs(((a >> 8) & 0xFF) - ((b >> 8) & 0xFF)),
+                Math.abs((a & 0xFF) - (b & 0xFF)));
+      }
+    };
+  }
+
+  // the largest of the three channels
+  private static int value(int argb) {
+    return Math.max(Math.max((argb >> 16) & 0xFF, (argb >> 8) & 0xFF), argb & 0xFF);
+  }
+
+  private static int luma(int argb) {
+    return (int) (0.2126 * ((argb >> 16) & 0xFF) + 0.7152 * ((argb >> 8) & 0xFF)
+            + 0.0722 * (argb & 0xFF));
+  }
+
+  private static int intensity(int argb) {
+    return (((argb >> 16) & 0xFF) + (argb & 0xFF) + ((argb >> 8) & 0xFF)) / 3;
+  }
+
+  private static int brighten(int argb, int amount) {
+    return RasterImage.pack(
+            Math.min(255, ((argb >> 16) & 0xFF) + amount),
+            Math.min(255, ((argb >> 8) & 0xFF) + amount),
+            Math.min(255, (argb & 0xFF) + amount));
+  }
+
+  private static int darken(int argb, int amount) {
+    return RasterImage.pack(
+            Math.max(0, ((argb >> 16) & 0xFF) - amount),
+            Math.max(0, ((argb >> 8) & 0xFF) - amount),
+            Math.max(0, (argb & 0xFF) - amount));
+  }
+
+  private static boolean isWhite(int argb) {
+    return (argb & 0xFFFFFF) == 0xFFFFFF;
+  }
+
+  /**
+   * Changes the lightness of pixels in HSL space. A row reuses one array for the HSL values, so
+   * filtering does not allocate per pixel.
+   */
+  private static final class LightnessKernel implements PixelKernel {
+    private final double dL;
+    private final DoubleBinaryOperator curve;
+
+    /**
+     * Constructs the kernel.
+     * @param dL the lightness of the composite image underneath
+     * @param curve maps the lightness of a pixel and dL, or 1 for white pixels, to the new
+     *              lightness
+     */
+    private LightnessKernel(double dL, DoubleBinaryOperator curve) {
+      this.dL = dL;
+      this.curve = curve;
+    }
+
+    @Override
+    public int apply(int argb) {
+      return this.apply(argb, new double[3]);
+    }
+
+    @Override
+    public void applyRow(int row, int[] src, int srcOffset, int[] dest, int destOffset,
+                         int length) {
+      double[] hsl = new double[3];
+      for (int i = 0; i < length; i++) {
+        dest[destOffset + i] = this.apply(src[srcOffset + i], hsl);
+      }
+    }
+
+    private int apply(int argb, double[] hsl) {
+      double l = isWhite(argb) ? 1 : this.dL;
+      PixelImpl.rgbToHsl((argb >> 16) & 0xFF, (argb >> 8) & 0xFF, argb & 0xFF, hsl);
+      return PixelImpl.hslToArgb(hsl[0], hsl[1], this.curve.applyAsDouble(hsl[2], l));
+    }
+  }
+
+  /**
+   * Looks up the vectorised brighten and darken rows. They are used when the vector source
+   * folder is compiled in, the jdk.incubator.vector module is added, and the system property
+   * collage.vector is not "false".
+   */
+  private static MethodHandle findVectorRow() {
+    if ("false".equals(System.getProperty("collage.vector"))) {
+      return null;
+    }
+    try {
+      Class<?> vectorKernels = Class.forName("model.VectorKernels", true,
+              PixelKernels.class.getClassLoader());
+      return MethodHandles.lookup().findStatic(vectorKernels, "applyRow",
+              MethodType.methodType(int.class, int.class, boolean.class, int[].class, int.class,
+                      int[].class, int.class, int.class));
+    } catch (ReflectiveOperationException | LinkageError e) {
+      return null;
+    }
+  }
+
+  /**
+   * Returns whether the brighten and darken kernels filter rows with the Vector API.
+   * @return true if vectorised rows are in use
+   */
+  public static boolean isVectorised() {
+    return VECTOR_ROW != null;
+  }
+
+  /**
+   * Brightens or darkens by a measure of each pixel. Rows are vectorised when possible, and
+   * the pixels that do not fill a whole vector go through the scalar kernel.
+   */
+  private static final class ChannelKernel implements PixelKernel {
+    private final int measure;
+    private final boolean brighten;
+    private final PixelKernel scalar;
+
+    private ChannelKernel(int measure, boolean brighten, PixelKernel scalar) {
+      this.measure = measure;
+      this.brighten = brighten;
+      this.scalar = scalar;
+    }
+
+    @Override
+    public int apply(int argb) {
+      return this.scalar.apply(argb);
+    }
+
+    @Override
+    public void applyRow(int row, int[] src, int srcOffset, int[] dest, int destOffset,
+                         int length) {
+      int done = 0;
+      if (VECTOR_ROW != null) {
+        try {
+          done = (int) VECTOR_ROW.invokeExact(this.measure, this.brighten, src, srcOffset, dest,
+                  destOffset, length);
+        } catch (Throwable e) {
+          throw new IllegalStateException("Vectorised filter failed", e);
+        }
+      }
+      for (int i = done; i < length; i++) {
+        dest[destOffset + i] = this.scalar.apply(src[srcOffset + i]);
+      }
+    }
+  }
+}
@@ -0,0 +1,288 @@
+package model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a plain (P3) or raw (P6) PPM image from a file, either whole or a row at a time. Plain
+ * images are read in a single pass, with numbers parsed straight from a reused buffer and
+ * comments skipped wherever they appear. The pixels of raw images are memory-mapped a window
+ * of rows at a time. Raw images with 16-bit samples are scaled to 8 bits per channel.
+ */
+final class PpmReader implements Closeable {
+  private static final int BUFFER_SIZE = 1 << 16;
+  private static final long MAX_MAPPING = 1L << 26;
+
+  private final FileChannel channel;
+  private final ByteBuffer buffer;
+  private final byte[] bytes;
+  private int position;
+  private int limit;
+  // the number of bytes of the file read into the buffer so far
+  private long filled;
+
+  private int width;
+  private int height;
+  private int maxValue;
+  private boolean raw;
+  private int rowsRead;
+  // raw images only: where the samples start, the bytes per row, and the current window
+  private long start;
+  private int rowBytes;
+  private byte[] samples;
+  private MappedByteBuffer window;
+
+  /**
+   * Constructs a reader over the given file. Closing the reader closes the channel.
+   * @param channel the file, positioned at its start
+   */
+  PpmReader(FileChannel channel) {
+    this.channel = channel;
+    this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    this.bytes = this.buffer.array();
+    this.height = -1;
+  }
+
+  /**
+   * Reads the image.
+   * @param name the name to give the image
+   * @return the image
+   * @throws IOException if the channel cannot be read
+   * @throws IllegalArgumentException if the bytes are not a valid P3 image with channels
+   *                                  from 0 to 255, or a valid P6 image
+   */
+  WritableImage readImage(String name) throws IOException, IllegalArgumentException {
+    this.readHeader();
+    WritableImage image = ImageUtil.createRaster(name, this.width, this.height,
+            this.getMaxValue());
+    int[] row = new int[this.width];
+    for (int i = 0; i < this.height; i++) {
+      this.readRow(row);
+      image.setRow(i, row, 0);
+    }
+    return image;
+  }
+
+  /**
+   * Reads the magic number, size and max value. This must be called before reading rows.
+   * @throws IOException if the channel cannot be read
+   * @throws IllegalArgumentException if the header is not a valid P3 or P6 header
+   */
+  void readHeader() throws IOException, IllegalArgumentException {
+    String magic = this.nextToken();
+    if (!"P3".equals(magic) && !"P6".equals(magic)) {
+      throw new IllegalArgumentException("Invalid PPM file: file should begin with P3 or P6");
+    }
+    this.width = this.nextInt();
+    this.height = this.nextInt();
+    this.maxValue = this.nextInt();
+    this.raw = "P6".equals(magic);
+    if (this.raw) {
+      this.startRaw();
+    }
+  }
+
+  /**
+   * Reads the next row of the image into the given array as packed ARGB values.
+   * @param row an array of at least the width of the image
+   * @throws IOException if the channel cannot be read
+   * @throws IllegalStateException if the header has not been read or every row has been read
+   * @throws IllegalArgumentException if the row is not valid
+   */
+  void readRow(int[] row) throws IOException, IllegalStateException, IllegalArgumentException {
+    if (this.rowsRead >= this.height) {
+      throw new IllegalStateException("There are no more rows to read.");
+    }
+    if (this.raw) {
+      this.readRawRow(row);
+    } else {
+      for (int j = 0; j < this.width; j++) {
+        int r = this.nextInt();
+        int g = this.nextInt();
+        int b = this.nextInt();
+        if (((r | g | b) & ~0xFF) != 0) {
+          throw new IllegalArgumentException("Color value outside of the range 0-255");
+        }
+        row[j] = RasterImage.pack(r, g, b);
+      }
+    }
+    this.rowsRead++;
+  }
+
+  /**
+   * Returns the width of the image.
+   * @return the width in pixels
+   */
+  int getWidth() {
+    return this.width;
+  }
+
+  /**
+   * Returns the height of the image.
+   * @return the height in pixels
+   */
+  int getHeight() {
+    return this.height;
+  }
+
+  /**
+   * Returns the max value of the rows as they are read. This is the max value in the header,
+   * or 255 for 16-bit images, whose samples are scaled to 8 bits.
+   * @return the max value
+   */
+  int getMaxValue() {
+    return Math.min(this.maxValue, 255);
+  }
+
+  // checks the raw header and finds where the samples start
+  private void startRaw() throws IOException, IllegalArgumentException {
+    if (this.maxValue < 1 || this.maxValue > 65535) {
+      throw new IllegalArgumentException("A raw PPM file needs a max value from 1 to 65535.");
+    }
+    // exactly one whitespace byte separates the header from the samples
+    if (!isSpace(this.read())) {
+      throw new IllegalArgumentException("Expected whitespace after the PPM header.");
+    }
+    long bytesPerRow = 3L * (this.maxValue > 255 ? 2 : 1) * this.width;
+    this.start = this.filled - (this.limit - this.position);
+    if (this.start + bytesPerRow * this.height > this.channel.size()) {
+      throw new IllegalArgumentException("The PPM file ended early.");
+    }
+    if (bytesPerRow > MAX_MAPPING) {
+      throw new IllegalArgumentException("PPM rows are too wide to map.");
+    }
+    this.rowBytes = (int) bytesPerRow;
+    this.samples = new byte[this.rowBytes];
+  }
+
+  // copies the next row of samples out of the mapped window, mapping the next window if needed
+  private void readRawRow(int[] row) throws IOException {
+    if (this.window == null || !this.window.hasRemaining()) {
+      int rows = (int) Math.min(this.height - this.rowsRead,
+              Math.max(1, MAX_MAPPING / Math.max(1, this.rowBytes)));
+      this.window = this.channel.map(FileChannel.MapMode.READ_ONLY,
+              this.start + (long) this.rowsRead * this.rowBytes, (long) rows * this.rowBytes);
+    }
+    this.window.get(this.samples);
+    if (this.maxValue <= 255) {
+      for (int j = 0, k = 0; j < this.width; j++, k += 3) {
+        row[j] = RasterImage.pack(this.samples[k] & 0xFF, this.samples[k + 1] & 0xFF,
+                this.samples[k + 2] & 0xFF);
+      }
+    } else {
+      for (int j = 0, k = 0; j < this.width; j++, k += 6) {
+        row[j] = RasterImage.pack(this.scale(k), this.scale(k + 2), this.scale(k + 4));
+      }
+    }
+  }
+
+  // a big-endian 16-bit sample scaled to 0-255
+  private int scale(int index) {
+    int value = Math.min(((this.samples[index] & 0xFF) << 8) | (this.samples[index + 1] & 0xFF),
+            this.maxValue);
+    return (value * 255 + this.maxValue / 2) / this.maxValue;
+  }
+
+  /**
+   * Reads the next run of characters up to whitespace or a comment.
+   * @return the token, or null at the end of the file
+   * @throws IOException if the channel cannot be read
+   */
+  String nextToken() throws IOException {
+    int c = this.skipSpace();
+    if (c < 0) {
+      return null;
+    }
+    StringBuilder token = new StringBuilder();
+    while (c >= 0 && c != '#' && !isSpace(c)) {
+      token.append((char) c);
+      c = this.read();
+    }
+    this.unread(c);
+    return token.toString();
+  }
+
+  /**
+   * Reads the next unsigned decimal number.
+   * @return the number
+   * @throws IOException if the channel cannot be read
+   * @throws IllegalArgumentException if the file ends or the next token is not a number
+   */
+  int nextInt() throws IOException, IllegalArgumentException {
+    int c = this.skipSpace();
+    if (c < '0' || c > '9') {
+      throw new IllegalArgumentException(c < 0 ? "The PPM file ended early."
+              : "Expected a number in the PPM file but found '" + (char) c + "'");
+    }
+    int value = 0;
+    do {
+      if (value > (Integer.MAX_VALUE - 9) / 10) {
+        throw new IllegalArgumentException("Number too large in the PPM file.");
+      }
+      value = value * 10 + c - '0';
+      c = this.read();
+    }
+    while (c >= '0' && c <= '9');
+    if (c >= 0 && c != '#' && !isSpace(c)) {
+      throw new IllegalArgumentException("Expected a number in the PPM file but found '"
+              + (char) c + "'");
+    }
+    this.unread(c);
+    return value;
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.channel.close();
+  }
+
+  // skips whitespace and comments, returning the first other byte or -1 at the end
+  private int skipSpace() throws IOException {
+    int c = this.read();
+    while (true) {
+      if (c == '#') {
+        while (c >= 0 && c != '\n' && c != '\r') {
+          c = this.read();
+        }
+      } else if (!isSpace(c)) {
+        return c;
+      }
+      c = this.read();
+    }
+  }
+
+  // the next byte, or -1 at the end of the file
+  private int read() throws IOException {
+    if (this.position == this.limit && !this.fill()) {
+      return -1;
+    }
+    return this.bytes[this.position++] & 0xFF;
+  }
+
+  // steps back over the byte just read so the next read returns it again
+  private void unread(int c) {
+    if (c >= 0) {
+      this.position--;
+    }
+  }
+
+  private boolean fill() throws IOException {
+    this.buffer.clear();
+    int n;
+    do {
+      n = this.channel.read(this.buffer);
+    }
+    while (n == 0);
+    this.position = 0;
+    this.limit = Math.max(n, 0);
+    this.filled += this.limit;
+    return n > 0;
+  }
+
+  private static boolean isSpace(int c) {
+    return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f' || c == 0x0B;
+  }
+}
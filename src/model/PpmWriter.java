@@ -0,0 +1,145 @@
+package model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes plain (P3) PPM files a row at a time through a fixed-size buffer, so saving takes the
+ * same memory whatever the size of the image. Channel values are written from a table of their
+ * ASCII digits.
+ */
+final class PpmWriter {
+  private static final int BUFFER_SIZE = 1 << 16;
+  // the longest value and separator written at once, with room to spare
+  private static final int MAX_VALUE_BYTES = 16;
+  private static final byte[][] DIGITS = new byte[256][];
+
+  static {
+    for (int v = 0; v < DIGITS.length; v++) {
+      DIGITS[v] = Integer.toString(v).getBytes(StandardCharsets.US_ASCII);
+    }
+  }
+
+  private final WritableByteChannel out;
+  private final int valuesPerLine;
+  private final byte[] lineSeparator;
+  private final byte[] bytes;
+  private final ByteBuffer buffer;
+  private int count;
+  // the number of values on the line being written
+  private int onLine;
+
+  /**
+   * Constructs a writer. The channel is not closed by the writer.
+   * @param out where to write the file
+   * @param valuesPerLine the number of channel values on each line of the file
+   * @throws IllegalArgumentException if valuesPerLine is less than 1
+   */
+  PpmWriter(WritableByteChannel out, int valuesPerLine) throws IllegalArgumentException {
+    if (valuesPerLine < 1) {
+      throw new IllegalArgumentException("At least one value is needed per line.");
+    }
+    this.out = out;
+    this.valuesPerLine = valuesPerLine;
+    this.lineSeparator = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+    this.bytes = new byte[BUFFER_SIZE];
+    this.buffer = ByteBuffer.wrap(this.bytes);
+  }
+
+  /**
+   * Writes the header and every pixel of the image.
+   * @param image the image to write
+   * @throws IOException if the channel cannot be written
+   */
+  void write(Image image) throws IOException {
+    this.writeHeader(image.getWidth(), image.getHeight(), image.getMaxValue());
+    // one row at a time, so a tiled image is read a band of tiles at a time
+    int[] row = new int[image.getWidth()];
+    for (int i = 0; i < image.getHeight(); i++) {
+      image.getRow(i, row, 0);
+      this.writeRow(row, 0, row.length);
+    }
+    this.finish();
+  }
+
+  /**
+   * Writes the header of the file. Rows are written after it with writeRow.
+   * @param width the width in pixels
+   * @param height the height in pixels
+   * @param maxValue the max value of the image
+   * @throws IOException if the channel cannot be written
+   */
+  void writeHeader(int width, int height, int maxValue) throws IOException {
+    this.writeAscii("P3");
+    this.writeLineSeparator();
+    this.writeAscii(width + " " + height);
+    this.writeLineSeparator();
+    this.writeAscii(Integer.toString(maxValue));
+    this.writeLineSeparator();
+    this.onLine = 0;
+  }
+
+  /**
+   * Writes the channel values of a row of pixels. Lines may run on into the next row.
+   * @param row the packed ARGB values
+   * @param offset the index of the first pixel of the row
+   * @param width the number of pixels in the row
+   * @throws IOException if the channel cannot be written
+   */
+  void writeRow(int[] row, int offset, int width) throws IOException {
+    for (int j = offset; j < offset + width; j++) {
+      int argb = row[j];
+      for (int shift = 16; shift >= 0; shift -= 8) {
+        if (this.count > BUFFER_SIZE - MAX_VALUE_BYTES) {
+          this.flush();
+        }
+        byte[] digits = DIGITS[(argb >> shift) & 0xFF];
+        System.arraycopy(digits, 0, this.bytes, this.count, digits.length);
+        this.count += digits.length;
+        if (++this.onLine == this.valuesPerLine) {
+          this.writeLineSeparator();
+          this.onLine = 0;
+        } else {
+          this.bytes[this.count++] = ' ';
+        }
+      }
+    }
+  }
+
+  /**
+   * Ends the last line and writes out everything still buffered.
+   * @throws IOException if the channel cannot be written
+   */
+  void finish() throws IOException {
+    if (this.onLine > 0) {
+      // replace the trailing space with the end of the line
+      this.count--;
+      this.writeLineSeparator();
+      this.onLine = 0;
+    }
+    this.flush();
+  }
+
+  private void writeLineSeparator() {
+    System.arraycopy(this.lineSeparator, 0, this.bytes, this.count, this.lineSeparator.length);
+    this.count += this.lineSeparator.length;
+  }
+
+  // header text, written after flushing so it always fits
+  private void writeAscii(String text) throws IOException {
+    this.flush();
+    byte[] ascii = text.getBytes(StandardCharsets.US_ASCII);
+    System.arraycopy(ascii, 0, this.bytes, 0, ascii.length);
+    this.count = ascii.length;
+  }
+
+  private void flush() throws IOException {
+    this.buffer.clear().limit(this.count);
+    while (this.buffer.hasRemaining()) {
+      this.out.write(this.buffer);
+    }
+    this.count = 0;
+  }
+}
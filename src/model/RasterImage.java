@@ -0,0 +1,173 @@
+package model;
+
+import java.awt.Color;
+
+/**
+ * Represents an image stored as a single array of packed ARGB values. Rows are laid out one
+ * after another, each row starting {@code stride} entries after the previous one, so an image
+ * may also be a window onto a larger raster.
+ */
+public class RasterImage implements WritableImage {
+  private final int[] data;
+  private final int offset;
+  private final int stride;
+  private final int width;
+  private final int height;
+  private final int maxValue;
+  private final String name;
+
+  /**
+   * Constructs a blank, fully transparent image of the given size.
+   * @param name - name of the image
+   * @param width - the width in pixels
+   * @param height - the height in pixels
+   * @param maxValue - the maximum RGB value of each pixel
+   * @throws IllegalArgumentException if the width or height is negative
+   */
+  public RasterImage(String name, int width, int height, int maxValue)
+          throws IllegalArgumentException {
+    this(name, new int[checkSize(width, height)], 0, width, width, height, maxValue);
+  }
+
+  /**
+   * Constructs an image over an existing packed ARGB array. The array is not copied.
+   * @param name - name of the image
+   * @param data - the packed ARGB values
+   * @param offset - index of the first pixel of the first row
+   * @param stride - distance between the starts of two consecutive rows
+   * @param width - the width in pixels
+   * @param height - the height in pixels
+   * @param maxValue - the maximum RGB value of each pixel
+   * @throws IllegalArgumentException if the array is null or too small for the dimensions
+   */
+  public RasterImage(String name, int[] data, int offset, int stride, int width, int height,
+                     int maxValue) throws IllegalArgumentException {
+    if (data == null) {
+      throw new IllegalArgumentException("Raster array must be non-null");
+    }
+    if (width < 0 || height < 0 || stride < width || offset < 0) {
+      throw new IllegalArgumentException("Invalid raster dimensions.");
+    }
+    if (height > 0 && (long) offset + (long) (height - 1) * stride + width > data.length) {
+      throw new IllegalArgumentException("Raster array is too small for the dimensions.");
+    }
+    this.data = data;
+    this.offset = offset;
+    this.stride = stride;
+    this.width = width;
+    this.height = height;
+    this.maxValue = maxValue;
+    this.name = name;
+  }
+
+  /**
+   * Packs the given channels into an opaque ARGB value. The channels are not range checked.
+   * @param red - the red channel, 0-255
+   * @param green - the green channel, 0-255
+   * @param blue - the blue channel, 0-255
+   * @return the packed value
+   */
+  public static int pack(int red, int green, int blue) {
+    return 0xFF000000 | (red << 16) | (green << 8) | blue;
+  }
+
+  /**
+   * Returns the pixel at the designated location. The pixel is created on demand as a copy of
+   * the packed value, so changing it does not change this image.
+   * @param row - row of the pixel
+   * @param col - column of the pixel
+   * @return a pixel object
+   */
+  @Override
+  public Pixel getPixel(int row, int col) {
+    return new PixelImpl(new Color(this.getArgb(col, row), true));
+  }
+
+  @Override
+  public int getArgb(int x, int y) {
+    return this.data[this.offset + y * this.stride + x];
+  }
+
+  @Override
+  public void getRow(int y, int[] dest, int destOffset) {
+    System.arraycopy(this.data, this.offset + y * this.stride, dest, destOffset, this.width);
+  }
+
+  @Override
+  public void setArgb(int x, int y, int argb) {
+    this.data[this.offset + y * this.stride + x] = argb;
+  }
+
+  @Override
+  public void setRow(int y, int[] src, int srcOffset) {
+    System.arraycopy(src, srcOffset, this.data, this.offset + y * this.stride, this.width);
+  }
+
+  @Override
+  public void getSpan(int x, int y, int[] dest, int destOffset, int length) {
+    System.arraycopy(this.data, this.offset + y * this.stride + x, dest, destOffset, length);
+  }
+
+  @Override
+  public void setSpan(int x, int y, int[] src, int srcOffset, int length) {
+    System.arraycopy(src, srcOffset, this.data, this.offset + y * this.stride + x, length);
+  }
+
+  @Override
+  public RasterImage withName(String name) {
+    return new RasterImage(name, this.data, this.offset, this.stride, this.width, this.height,
+            this.maxValue);
+  }
+
+  /**
+   * Returns the backing array of this image. The array is shared, not copied.
+   * @return the packed ARGB values
+   */
+  public int[] getData() {
+    return this.data;
+  }
+
+  /**
+   * Returns the index of the first pixel in the backing array.
+   * @return the offset
+   */
+  public int getOffset() {
+    return this.offset;
+  }
+
+  /**
+   * Returns the distance between the starts of two rows in the backing array.
+   * @return the stride
+   */
+  public int getStride() {
+    return this.stride;
+  }
+
+  @Override
+  public int getMaxValue() {
+    return this.maxValue;
+  }
+
+  @Override
+  public int getWidth() {
+    return this.width;
+  }
+
+  @Override
+  public int getHeight() {
+    return this.height;
+  }
+
+  @Override
+  public String getName() {
+    return this.name;
+  }
+
+  // checks the dimensions of a new raster and returns the number of pixels it needs
+  private static int checkSize(int width, int height) {
+    if (width < 0 || height < 0 || (long) width * height > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Invalid raster dimensions.");
+    }
+    return width * height;
+  }
+}
@@ -0,0 +1,86 @@
+package model;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Applies a row kernel to a band of rows of an image, splitting the band in half until it is
+ * small enough to run sequentially. Each row is written by exactly one task, so the result is
+ * the same as running the kernel over the rows in order.
+ */
+class RowBandTask extends RecursiveAction {
+  private static final long serialVersionUID = 1L;
+
+  private final RowKernel kernel;
+  private final Image src;
+  private final WritableImage dest;
+  private final int firstRow;
+  private final int lastRow;
+  private final int cutoff;
+
+  /**
+   * Constructs a task for rows firstRow (inclusive) to lastRow (exclusive).
+   * @param kernel the kernel to apply
+   * @param src the image to read
+   * @param dest the image to write, with the same size as src
+   * @param firstRow the first row of the band
+   * @param lastRow one past the last row of the band
+   * @param cutoff the number of pixels at or below which a band is not split further
+   */
+  RowBandTask(RowKernel kernel, Image src, WritableImage dest, int firstRow, int lastRow,
+              int cutoff) {
+    this.kernel = kernel;
+    this.src = src;
+    this.dest = dest;
+    this.firstRow = firstRow;
+    this.lastRow = lastRow;
+    this.cutoff = cutoff;
+  }
+
+  @Override
+  protected void compute() {
+    int rows = this.lastRow - this.firstRow;
+    if (rows <= 1 || (long) rows * this.src.getWidth() <= this.cutoff) {
+      applyRows(this.kernel, this.src, this.dest, this.firstRow, this.lastRow);
+      return;
+    }
+    int middle = this.firstRow + rows / 2;
+    invokeAll(new RowBandTask(this.kernel, this.src, this.dest, this.firstRow, middle,
+                    this.cutoff),
+            new RowBandTask(this.kernel, this.src, this.dest, middle, this.lastRow,
+                    this.cutoff));
+  }
+
+  /**
+   * Applies the kernel to the given rows on the calling thread.
+   * @param kernel the kernel to apply
+   * @param src the image to read
+   * @param dest the image to write, with the same size as src
+   * @param firstRow the first row
+   * @param lastRow one past the last row
+   */
+  static void applyRows(RowKernel kernel, Image src, WritableImage dest, int firstRow,
+                        int lastRow) {
+    int width = src.getWidth();
+    // heap rasters are read and written in place, anything else goes through a row buffer
+    RasterImage srcRaster = src instanceof RasterImage ? (RasterImage) src : null;
+    RasterImage destRaster = dest instanceof RasterImage ? (RasterImage) dest : null;
+    int[] in = srcRaster == null ? new int[width] : srcRaster.getData();
+    int[] out = destRaster == null ? new int[width] : destRaster.getData();
+    for (int i = firstRow; i < lastRow; i++) {
+      int inOffset = 0;
+      int outOffset = 0;
+      if (srcRaster == null) {
+        src.getRow(i, in, 0);
+      } else {
+        inOffset = srcRaster.getOffset() + i * srcRaster.getStride();
+      }
+      if (destRaster != null) {
+        outOffset = destRaster.getOffset() + i * destRaster.getStride();
+      }
+      kernel.applyRow(i, in, inOffset, out, outOffset, width);
+      if (destRaster == null) {
+        dest.setRow(i, out, 0);
+      }
+    }
+  }
+}
@@ -0,0 +1,20 @@
+package model;
+
+/**
+ * Represents a filter that is applied to an image one row at a time. Pixels are packed ARGB
+ * values as stored by {@link RasterImage}.
+ */
+public interface RowKernel {
+
+  /**
+   * Filters one row of pixels. The source and destination may be the same row, so the row
+   * can be filtered in place.
+   * @param row the index of the row in the image
+   * @param src the array holding the original pixels
+   * @param srcOffset the index in src of the first pixel of the row
+   * @param dest the array to write the filtered pixels into
+   * @param destOffset the index in dest of the first pixel of the row
+   * @param length the number of pixels in the row
+   */
+  void applyRow(int row, int[] src, int srcOffset, int[] dest, int destOffset, int length);
+}
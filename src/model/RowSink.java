@@ -0,0 +1,16 @@
+package model;
+
+import java.io.IOException;
+
+/**
+ * Receives the rows of an image one at a time, top to bottom.
+ */
+interface RowSink {
+
+  /**
+   * Takes the next row of the image. The array may be reused once this returns.
+   * @param row the packed ARGB values of the row
+   * @throws IOException if the row cannot be written
+   */
+  void accept(int[] row) throws IOException;
+}
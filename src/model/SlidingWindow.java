@@ -0,0 +1,73 @@
+package model;
+
+import java.io.IOException;
+
+/**
+ * Runs a convolution kernel over an image that arrives a row at a time. Only the rows the
+ * kernel can reach are kept, in a ring of 2 * radius + 1 rows, so memory does not depend on
+ * the height of the image. Each filtered row is passed on as soon as the rows below it have
+ * arrived, and the last rows are passed on once the bottom row arrives.
+ */
+final class SlidingWindow implements RowSink {
+  private final ConvolutionKernel kernel;
+  private final int width;
+  private final int height;
+  private final RowSink next;
+  private final int[][] ring;
+  private final int[][] window;
+  private final int[] filtered;
+  private int received;
+
+  /**
+   * Constructs a window.
+   * @param kernel the kernel to run
+   * @param width the width of the image in pixels
+   * @param height the height of the image in pixels
+   * @param next where to pass the filtered rows
+   * @throws IllegalArgumentException if the width or height is not positive
+   */
+  SlidingWindow(ConvolutionKernel kernel, int width, int height, RowSink next)
+          throws IllegalArgumentException {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Image dimensions must be positive.");
+    }
+    this.kernel = kernel;
+    this.width = width;
+    this.height = height;
+    this.next = next;
+    int size = 2 * kernel.getRadius() + 1;
+    this.ring = new int[size][width];
+    this.window = new int[size][];
+    this.filtered = new int[width];
+  }
+
+  @Override
+  public void accept(int[] row) throws IOException, IllegalStateException {
+    if (this.received == this.height) {
+      throw new IllegalStateException("The image has no more rows.");
+    }
+    System.arraycopy(row, 0, this.ring[this.received % this.ring.length], 0, this.width);
+    this.received++;
+    int radius = this.kernel.getRadius();
+    if (this.received > radius) {
+      this.emit(this.received - 1 - radius);
+    }
+    if (this.received == this.height) {
+      // the bottom rows repeat the last row, which has now arrived
+      for (int y = Math.max(this.height - radius, 0); y < this.height; y++) {
+        this.emit(y);
+      }
+    }
+  }
+
+  // filters row y, whose neighbours are all in the ring
+  private void emit(int y) throws IOException {
+    int radius = this.kernel.getRadius();
+    for (int i = 0; i < this.window.length; i++) {
+      int source = Math.min(Math.max(y - radius + i, 0), this.height - 1);
+      this.window[i] = this.ring[source % this.ring.length];
+    }
+    this.kernel.convolveRow(this.window, this.filtered, this.width);
+    this.next.accept(this.filtered);
+  }
+}
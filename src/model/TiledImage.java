@@ -0,0 +1,325 @@
+package model;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Represents an image stored in a memory-mapped scratch file as square tiles of packed ARGB
+ * values, so images larger than physical memory can be built. A tile that has never been
+ * written reads as the background value and takes no space, each row of tiles is mapped the
+ * first time it is used, and the operating system only pages in the parts that are touched.
+ * The scratch file is deleted once the image and all its renamed copies are garbage collected.
+ */
+public class TiledImage implements WritableImage {
+  /**
+   * The width and height of a tile in pixels.
+   */
+  public static final int TILE_SIZE = 256;
+
+  private static final int TILE_PIXELS = TILE_SIZE * TILE_SIZE;
+  private static final Cleaner CLEANER = Cleaner.create();
+
+  private final Store store;
+  private final int width;
+  private final int height;
+  private final int maxValue;
+  private final String name;
+
+  /**
+   * Constructs a blank, fully transparent image of the given size backed by a new scratch file.
+   * @param name - name of the image
+   * @param width - the width in pixels
+   * @param height - the height in pixels
+   * @param maxValue - the maximum RGB value of each pixel
+   * @throws IllegalArgumentException if the size is invalid
+   * @throws UncheckedIOException if the scratch file cannot be created
+   */
+  public TiledImage(String name, int width, int height, int maxValue)
+          throws IllegalArgumentException {
+    this(name, width, height, maxValue, 0);
+  }
+
+  /**
+   * Constructs an image of the given size in which every pixel starts as the background value.
+   * @param name - name of the image
+   * @param width - the width in pixels
+   * @param height - the height in pixels
+   * @param maxValue - the maximum RGB value of each pixel
+   * @param background - the packed ARGB value of pixels that have not been written
+   * @throws IllegalArgumentException if the size is invalid
+   * @throws UncheckedIOException if the scratch file cannot be created
+   */
+  public TiledImage(String name, int width, int height, int maxValue, int background)
+          throws IllegalArgumentException {
+    if (width <= 0 || height <= 0 || (long) tilesAcross(width) * TILE_PIXELS * 4
+            > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Invalid tiled image dimensions.");
+    }
+    try {
+      this.store = new Store(tilesAcross(width), tilesAcross(height), background);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to create tile file", e);
+    }
+    this.width = width;
+    this.height = height;
+    this.maxValue = maxValue;
+    this.name = name;
+  }
+
+  private TiledImage(String name, TiledImage other) {
+    this.store = other.store;
+    this.width = other.width;
+    this.height = other.height;
+    this.maxValue = other.maxValue;
+    this.name = name;
+  }
+
+  /**
+   * Returns the pixel at the designated location. The pixel is created on demand as a copy of
+   * the packed value, so changing it does not change this image.
+   * @param row - row of the pixel
+   * @param col - column of the pixel
+   * @return a pixel object
+   */
+  @Override
+  public Pixel getPixel(int row, int col) {
+    return new PixelImpl(new Color(this.getArgb(col, row), true));
+  }
+
+  @Override
+  public int getArgb(int x, int y) {
+    if (!this.store.isWritten(x / TILE_SIZE, y / TILE_SIZE)) {
+      return this.store.background;
+    }
+    return this.store.band(y / TILE_SIZE).get(indexInBand(x, y));
+  }
+
+  @Override
+  public void getRow(int y, int[] dest, int destOffset) {
+    IntBuffer band = this.store.band(y / TILE_SIZE).duplicate();
+    for (int x = 0; x < this.width; x += TILE_SIZE) {
+      int length = Math.min(TILE_SIZE, this.width - x);
+      if (this.store.isWritten(x / TILE_SIZE, y / TILE_SIZE)) {
+        band.position(indexInBand(x, y));
+        band.get(dest, destOffset + x, length);
+      } else {
+        Arrays.fill(dest, destOffset + x, destOffset + x + length, this.store.background);
+      }
+    }
+  }
+
+  @Override
+  public void setArgb(int x, int y, int argb) {
+    this.store.write(x / TILE_SIZE, y / TILE_SIZE).put(indexInBand(x, y), argb);
+  }
+
+  @Override
+  public void setRow(int y, int[] src, int srcOffset) {
+    for (int x = 0; x < this.width; x += TILE_SIZE) {
+      IntBuffer band = this.store.write(x / TILE_SIZE, y / TILE_SIZE).duplicate();
+      band.position(indexInBand(x, y));
+      band.put(src, srcOffset + x, Math.min(TILE_SIZE, this.width - x));
+    }
+  }
+
+  @Override
+  public void getSpan(int x, int y, int[] dest, int destOffset, int length) {
+    IntBuffer band = this.store.band(y / TILE_SIZE).duplicate();
+    for (int end = x + length; x < end; ) {
+      int run = Math.min(TILE_SIZE - x % TILE_SIZE, end - x);
+      if (this.store.isWritten(x / TILE_SIZE, y / TILE_SIZE)) {
+        band.position(indexInBand(x, y));
+        band.get(dest, destOffset, run);
+      } else {
+        Arrays.fill(dest, destOffset, destOffset + run, this.store.background);
+      }
+      x += run;
+      destOffset += run;
+    }
+  }
+
+  @Override
+  public void setSpan(int x, int y, int[] src, int srcOffset, int length) {
+    // only the tiles the span crosses are written
+    for (int end = x + length; x < end; ) {
+      int run = Math.min(TILE_SIZE - x % TILE_SIZE, end - x);
+      IntBuffer band = this.store.write(x / TILE_SIZE, y / TILE_SIZE).duplicate();
+      band.position(indexInBand(x, y));
+      band.put(src, srcOffset, run);
+      x += run;
+      srcOffset += run;
+    }
+  }
+
+  @Override
+  public WritableImage withName(String name) {
+    return new TiledImage(name, this);
+  }
+
+  /**
+   * Returns the number of rows of tiles.
+   * @return the number of tile rows
+   */
+  public int getTileRows() {
+    return this.store.tilesDown;
+  }
+
+  /**
+   * Applies a pointwise kernel to every tile in one row of tiles of the source image and writes
+   * the result into the same tiles of this image. Tiles of the source that were never written
+   * are filtered as blocks of the background value.
+   * @param kernel the kernel to apply
+   * @param src an image with the same size as this one
+   * @param tileRow the row of tiles to filter
+   * @throws IllegalArgumentException if the images are not the same size
+   */
+  public void applyToTileRow(PixelKernel kernel, TiledImage src, int tileRow)
+          throws IllegalArgumentException {
+    if (src.width != this.width || src.height != this.height) {
+      throw new IllegalArgumentException("Tiled images must be the same size.");
+    }
+    int[] tile = new int[TILE_PIXELS];
+    for (int tileCol = 0; tileCol < this.store.tilesAcross; tileCol++) {
+      if (src.store.isWritten(tileCol, tileRow)) {
+        IntBuffer in = src.store.band(tileRow).duplicate();
+        in.position(tileCol * TILE_PIXELS);
+        in.get(tile);
+      } else {
+        Arrays.fill(tile, src.store.background);
+      }
+      kernel.applyRow(tileRow, tile, 0, tile, 0, TILE_PIXELS);
+      IntBuffer out = this.store.write(tileCol, tileRow).duplicate();
+      out.position(tileCol * TILE_PIXELS);
+      out.put(tile);
+    }
+  }
+
+  @Override
+  public int getMaxValue() {
+    return this.maxValue;
+  }
+
+  @Override
+  public int getWidth() {
+    return this.width;
+  }
+
+  @Override
+  public int getHeight() {
+    return this.height;
+  }
+
+  @Override
+  public String getName() {
+    return this.name;
+  }
+
+  private static int tilesAcross(int pixels) {
+    return (pixels + TILE_SIZE - 1) / TILE_SIZE;
+  }
+
+  // tiles of a band are stored one after another, each tile row by row
+  private static int indexInBand(int x, int y) {
+    return (x / TILE_SIZE) * TILE_PIXELS + (y % TILE_SIZE) * TILE_SIZE + x % TILE_SIZE;
+  }
+
+  /**
+   * The scratch file and its mapped rows of tiles, shared by an image and its renamed copies.
+   */
+  private static final class Store {
+    private final int tilesAcross;
+    private final int tilesDown;
+    private final int background;
+    private final AtomicReferenceArray<IntBuffer> bands;
+    private final boolean[] written;
+    private final FileResources resources;
+
+    private Store(int tilesAcross, int tilesDown, int background) throws IOException {
+      this.tilesAcross = tilesAcross;
+      this.tilesDown = tilesDown;
+      this.background = background;
+      this.bands = new AtomicReferenceArray<>(tilesDown);
+      this.written = new boolean[tilesAcross * tilesDown];
+      Path file = Files.createTempFile("collage-tiles", ".raster");
+      FileChannel channel = FileChannel.open(file, StandardOpenOption.READ,
+              StandardOpenOption.WRITE);
+      this.resources = new FileResources(file, channel);
+      CLEANER.register(this, this.resources);
+    }
+
+    // maps the given row of tiles the first time it is used
+    private IntBuffer band(int tileRow) {
+      IntBuffer band = this.bands.get(tileRow);
+      return band != null ? band : this.map(tileRow);
+    }
+
+    private synchronized IntBuffer map(int tileRow) {
+      IntBuffer band = this.bands.get(tileRow);
+      if (band == null) {
+        long bandBytes = 4L * this.tilesAcross * TILE_PIXELS;
+        try {
+          band = this.resources.channel.map(FileChannel.MapMode.READ_WRITE,
+                  tileRow * bandBytes, bandBytes).order(ByteOrder.nativeOrder()).asIntBuffer();
+        } catch (IOException e) {
+          throw new UncheckedIOException("Unable to map tiles", e);
+        }
+        this.bands.set(tileRow, band);
+      }
+      return band;
+    }
+
+    private boolean isWritten(int tileCol, int tileRow) {
+      return this.written[tileRow * this.tilesAcross + tileCol];
+    }
+
+    // fills a tile with the background the first time it is written and returns its band
+    private synchronized IntBuffer write(int tileCol, int tileRow) {
+      IntBuffer band = this.band(tileRow);
+      int tile = tileRow * this.tilesAcross + tileCol;
+      if (!this.written[tile]) {
+        if (this.background != 0) {
+          int[] fill = new int[TILE_PIXELS];
+          Arrays.fill(fill, this.background);
+          IntBuffer out = band.duplicate();
+          out.position(tileCol * TILE_PIXELS);
+          out.put(fill);
+        }
+        this.written[tile] = true;
+      }
+      return band;
+    }
+  }
+
+  /**
+   * Closes and deletes the scratch file once the store is unreachable.
+   */
+  private static final class FileResources implements Runnable {
+    private final Path file;
+    private final FileChannel channel;
+
+    private FileResources(Path file, FileChannel channel) {
+      this.file = file;
+      this.channel = channel;
+    }
+
+    @Override
+    public void run() {
+      try {
+        this.channel.close();
+        Files.deleteIfExists(this.file);
+      } catch (IOException e) {
+        this.file.toFile().deleteOnExit();
+      }
+    }
+  }
+}
@@ -0,0 +1,170 @@
+package model;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Represents a tone filter compiled to one lookup table per channel. Filtering a pixel costs
+ * three table lookups. Tables compiled by {@link #levels} and {@link #curve} are cached by
+ * their parameters, so applying the same adjustment again does not rebuild them.
+ */
+public final class ToneCurve implements PixelKernel {
+  /**
+   * The number of entries in each table, one for every channel value.
+   */
+  public static final int SIZE = 256;
+
+  private static final int MAX_COMPILED = 64;
+  private static final Map<List<Object>, ToneCurve> COMPILED =
+          new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, ToneCurve> eldest) {
+              return this.size() > MAX_COMPILED;
+            }
+          };
+
+  // the tables hold the output already shifted into place in a packed pixel
+  private final int[] red;
+  private final int[] green;
+  private final int[] blue;
+
+  /**
+   * Constructs a curve from a table for each channel. The tables are copied.
+   * @param red the new red value for every red value
+   * @param green the new green value for every green value
+   * @param blue the new blue value for every blue value
+   * @throws IllegalArgumentException if a table is null, does not have SIZE entries, or has
+   *                                  an entry outside 0-255
+   */
+  public ToneCurve(int[] red, int[] green, int[] blue) throws IllegalArgumentException {
+    this.red = shifted(red, 16);
+    this.green = shifted(green, 8);
+    this.blue = shifted(blue, 0);
+  }
+
+  /**
+   * Returns a levels adjustment applied to every channel. Values at or below black become 0,
+   * values at or above white become 255, and values in between are stretched and then raised
+   * to the power 1 / gamma.
+   * @param black the input value mapped to 0
+   * @param white the input value mapped to 255
+   * @param gamma above 1 to lighten the midtones, below 1 to darken them
+   * @return the compiled curve
+   * @throws IllegalArgumentException if black and white are not 0 <= black < white <= 255, or
+   *                                  gamma is not positive
+   */
+  public static ToneCurve levels(int black, int white, double gamma)
+          throws IllegalArgumentException {
+    if (black < 0 || white > 255 || black >= white) {
+      throw new IllegalArgumentException("Levels need 0 <= black < white <= 255.");
+    }
+    if (!(gamma > 0) || Double.isInfinite(gamma)) {
+      throw new IllegalArgumentException("Gamma must be positive.");
+    }
+    return compile(Arrays.asList("levels", black, white, gamma), () -> {
+      int[] table = new int[SIZE];
+      for (int v = 0; v < SIZE; v++) {
+        double t = (Math.min(Math.max(v, black), white) - black) / (double) (white - black);
+        table[v] = (int) Math.round(255 * Math.pow(t, 1 / gamma));
+      }
+      return new ToneCurve(table, table, table);
+    });
+  }
+
+  /**
+   * Returns a curve applied to every channel that passes through the given points and is
+   * straight between them. Values before the first point or after the last take that point's
+   * output.
+   * @param inputs the input value of each point, increasing
+   * @param outputs the output value of each point
+   * @return the compiled curve
+   * @throws IllegalArgumentException if the arrays are null, differ in length, are empty,
+   *                                  the inputs are not increasing, or a value is outside 0-255
+   */
+  public static ToneCurve curve(int[] inputs, int[] outputs) throws IllegalArgumentException {
+    if (inputs == null || outputs == null) {
+      throw new IllegalArgumentException("Arguments are null");
+    }
+    if (inputs.length != outputs.length || inputs.length == 0) {
+      throw new IllegalArgumentException("A curve needs an output for each of its inputs.");
+    }
+    for (int i = 0; i < inputs.length; i++) {
+      if (inputs[i] < 0 || inputs[i] > 255 || outputs[i] < 0 || outputs[i] > 255) {
+        throw new IllegalArgumentException("Curve points must be within 0-255.");
+      }
+      if (i > 0 && inputs[i] <= inputs[i - 1]) {
+        throw new IllegalArgumentException("Curve inputs must be increasing.");
+      }
+    }
+    int[] in = inputs.clone();
+    int[] out = outputs.clone();
+    return compile(Arrays.asList("curve", Arrays.toString(in), Arrays.toString(out)), () -> {
+      int[] table = new int[SIZE];
+      int point = 0;
+      for (int v = 0; v < SIZE; v++) {
+        while (point < in.length - 1 && v > in[point + 1]) {
+          point++;
+        }
+        if (v <= in[0]) {
+          table[v] = out[0];
+        } else if (v >= in[in.length - 1]) {
+          table[v] = out[in.length - 1];
+        } else {
+          double t = (v - in[point]) / (double) (in[point + 1] - in[point]);
+          table[v] = (int) Math.round(out[point] + t * (out[point + 1] - out[point]));
+        }
+      }
+      return new ToneCurve(table, table, table);
+    });
+  }
+
+  @Override
+  public int apply(int argb) {
+    return 0xFF000000 | this.red[(argb >> 16) & 0xFF] | this.green[(argb >> 8) & 0xFF]
+            | this.blue[argb & 0xFF];
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof ToneCurve)) {
+      return false;
+    }
+    ToneCurve other = (ToneCurve) o;
+    return Arrays.equals(this.red, other.red) && Arrays.equals(this.green, other.green)
+            && Arrays.equals(this.blue, other.blue);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * (31 * Arrays.hashCode(this.red) + Arrays.hashCode(this.green))
+            + Arrays.hashCode(this.blue);
+  }
+
+  // returns the cached curve for the parameters, compiling it the first time
+  private static ToneCurve compile(List<Object> parameters,
+                                   Supplier<ToneCurve> compiler) {
+    synchronized (COMPILED) {
+      return COMPILED.computeIfAbsent(parameters, p -> compiler.get());
+    }
+  }
+
+  private static int[] shifted(int[] table, int shift) throws IllegalArgumentException {
+    if (table == null || table.length != SIZE) {
+      throw new IllegalArgumentException("A tone table needs " + SIZE + " entries.");
+    }
+    int[] result = new int[SIZE];
+    for (int v = 0; v < SIZE; v++) {
+      if (table[v] < 0 || table[v] > 255) {
+        throw new IllegalArgumentException("Tone table entries must be within 0-255.");
+      }
+      result[v] = table[v] << shift;
+    }
+    return result;
+  }
+}
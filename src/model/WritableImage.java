@@ -0,0 +1,58 @@
+package model;
+
+/**
+ * Represents an image whose pixels can be written as packed ARGB values.
+ */
+public interface WritableImage extends Image {
+
+  /**
+   * Sets the packed ARGB value of the pixel in column x and row y.
+   * @param x - column of the pixel
+   * @param y - row of the pixel
+   * @param argb - the packed value
+   */
+  void setArgb(int x, int y, int argb);
+
+  /**
+   * Copies one row of packed ARGB values into row y of this image.
+   * @param y - the row to write
+   * @param src - the array to copy from
+   * @param srcOffset - the index in src of the first value
+   */
+  void setRow(int y, int[] src, int srcOffset);
+
+  /**
+   * Copies part of row y of this image into an array.
+   * @param x - the column of the first pixel to copy
+   * @param y - the row to read
+   * @param dest - the array to copy into
+   * @param destOffset - the index in dest of the first value
+   * @param length - the number of pixels to copy
+   */
+  default void getSpan(int x, int y, int[] dest, int destOffset, int length) {
+    for (int i = 0; i < length; i++) {
+      dest[destOffset + i] = this.getArgb(x + i, y);
+    }
+  }
+
+  /**
+   * Copies packed ARGB values into part of row y of this image.
+   * @param x - the column of the first pixel to write
+   * @param y - the row to write
+   * @param src - the array to copy from
+   * @param srcOffset - the index in src of the first value
+   * @param length - the number of pixels to write
+   */
+  default void setSpan(int x, int y, int[] src, int srcOffset, int length) {
+    for (int i = 0; i < length; i++) {
+      this.setArgb(x + i, y, src[srcOffset + i]);
+    }
+  }
+
+  /**
+   * Returns an image with a different name that shares the pixels of this image.
+   * @param name - the name of the new image
+   * @return the renamed image
+   */
+  WritableImage withName(String name);
+}
@@ -2,14 +2,10 @@ package view;
 
 
 import java.awt.Component;
-import java.awt.Color;
 import java.awt.image.BufferedImage;
-import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.StringReader;
-import java.io.FileOutputStream;
-import java.io.FileNotFoundException;
 
 
 
@@ -17,6 +13,8 @@ import controller.CollageControllerImpl;
 import controller.CollageOperations;
 import controller.NewGuiController;
 import model.CollageModel;
+import model.ImageConverter;
+import model.ImageUtil;
 
 import javax.swing.JOptionPane;
 import javax.imageio.ImageIO;
@@ -25,8 +23,6 @@ import javax.swing.JFileChooser;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
 
-import static java.awt.image.BufferedImage.TYPE_INT_RGB;
-
 /**
  * Class represents the controller to allow user to perform
  * image processing effects via text interface.
@@ -104,8 +100,20 @@ public class GuiControllerImlp implements NewGuiController {
         String layernumber = JOptionPane.showInputDialog("Layer number: ");
         String x = JOptionPane.showInputDialog("x: ");
         String y = JOptionPane.showInputDialog("y: ");
-        this.model.addImageToLayer(Integer.parseInt(layernumber), name, Integer.parseInt(x),
-            Integer.parseInt(y));
+        int layer;
+        int xCoord;
+        int yCoord;
+        try {
+          layer = Integer.parseInt(layernumber);
+          xCoord = Integer.parseInt(x);
+          yCoord = Integer.parseInt(y);
+        } catch (NumberFormatException e) {
+          this.view.renderMessage("Layer number, x and y must be whole numbers.");
+          return;
+        }
+        // later edits to the same layer only blend it with the flattened layers around it
+        this.model.setActiveLayer(layer);
+        this.model.addImageToLayer(layer, name, xCoord, yCoord);
         break;
       case "red-component":
         this.model.redComponent(name, dest);
@@ -204,23 +212,14 @@ public class GuiControllerImlp implements NewGuiController {
         return;
       }
 
-      BufferedImage src = new BufferedImage(toSave.getWidth(), toSave.getHeight(), TYPE_INT_RGB);
-
-      for (int col = 0; col < src.getHeight(); col++) {
-        for (int row = 0; row < src.getWidth(); row++) {
-          Color color = new Color(
-                  toSave.getPixel(col, row).getRed(),
-                  toSave.getPixel(col, row).getGreen(),
-                  toSave.getPixel(col, row).getBlue(),
-                  toSave.getPixel(col, row).getAlpha());
-          src.setRGB(row, col, color.getRGB());
-        }
-      }
+      BufferedImage src = ImageConverter.toBufferedImage(toSave);
 
       try {
-        ImageIO.write(src,
-                destinationPath.substring(destinationPath.length() - 3),
-                new FileOutputStream(fileOutput));
+        if (!ImageIO.write(src, destinationPath.substring(destinationPath.length() - 3),
+                fileOutput)) {
+          this.view.renderMessage("File to save to invalid.");
+          return;
+        }
       } catch (IOException e) {
         this.view.renderMessage("File to save to invalid.");
         return;
@@ -235,15 +234,8 @@ public class GuiControllerImlp implements NewGuiController {
   // saves image as a PPM file
   private void savePPM(model.Image toSave, File fileOutput)
           throws IllegalArgumentException {
-    DataOutputStream out;
-    try {
-      out = new DataOutputStream(new FileOutputStream(fileOutput));
-    } catch (FileNotFoundException e) {
-      throw new IllegalArgumentException("File save failed");
-    }
     try {
-      out.writeBytes(toSave.toString());
-      out.close();
+      ImageUtil.savePPM(toSave, fileOutput.getPath());
     } catch (IOException e) {
       throw new IllegalArgumentException("File save failed");
     }
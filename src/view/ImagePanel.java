@@ -0,0 +1,90 @@
+package view;
+
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+import javax.swing.JComponent;
+
+/**
+ * Draws a BufferedImage, scaled when it is smaller than the window so that it fills it. The
+ * image is scaled while painting rather than ahead of time, and only the part of the image
+ * under the area being repainted is drawn, so scrolling a large image only draws the strip
+ * that comes into view.
+ */
+final class ImagePanel extends JComponent {
+  private static final long serialVersionUID = 1L;
+  private static final int SCALE_BELOW = 400;
+
+  private transient BufferedImage image;
+  private double scale;
+
+  /**
+   * Constructs an empty panel.
+   */
+  ImagePanel() {
+    this.scale = 1;
+    this.setOpaque(true);
+  }
+
+  /**
+   * Shows the given image. Images narrower or shorter than 400 pixels are scaled to fit the
+   * given size, and others are shown at full size.
+   * @param image the image to show
+   * @param fit the size to scale small images to
+   */
+  void setImage(BufferedImage image, Dimension fit) {
+    this.image = image;
+    this.scale = 1;
+    if (image.getWidth() < SCALE_BELOW || image.getHeight() < SCALE_BELOW) {
+      this.scale = Math.min((double) fit.width / image.getWidth(),
+              (double) fit.height / image.getHeight());
+    }
+    this.revalidate();
+    this.repaint();
+  }
+
+  @Override
+  public Dimension getPreferredSize() {
+    if (this.image == null) {
+      return new Dimension(0, 0);
+    }
+    return new Dimension((int) (this.image.getWidth() * this.scale),
+            (int) (this.image.getHeight() * this.scale));
+  }
+
+  @Override
+  protected void paintComponent(Graphics g) {
+    Rectangle clip = g.getClipBounds();
+    if (clip == null) {
+      clip = new Rectangle(0, 0, this.getWidth(), this.getHeight());
+    }
+    g.setColor(this.getBackground());
+    g.fillRect(clip.x, clip.y, clip.width, clip.height);
+    if (this.image == null) {
+      return;
+    }
+    Graphics2D g2 = (Graphics2D) g;
+    if (this.scale != 1) {
+      g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+              RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      g2.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+    }
+    // the source pixels under the clip, widened by one so scaled edges are filled
+    int sx1 = Math.max((int) Math.floor(clip.x / this.scale) - 1, 0);
+    int sy1 = Math.max((int) Math.floor(clip.y / this.scale) - 1, 0);
+    int sx2 = Math.min((int) Math.ceil((clip.x + clip.width) / this.scale) + 1,
+            this.image.getWidth());
+    int sy2 = Math.min((int) Math.ceil((clip.y + clip.height) / this.scale) + 1,
+            this.image.getHeight());
+    if (sx1 >= sx2 || sy1 >= sy2) {
+      return;
+    }
+    g2.drawImage(this.image, (int) Math.round(sx1 * this.scale),
+            (int) Math.round(sy1 * this.scale), (int) Math.round(sx2 * this.scale),
+            (int) Math.round(sy2 * this.scale), sx1, sy1, sx2, sy2, null);
+  }
+}
@@ -1,34 +1,30 @@
 package view;
 
-import javax.imageio.ImageIO;
 import javax.swing.JOptionPane;
 import javax.swing.DefaultListModel;
 import javax.swing.JPanel;
-import javax.swing.JLabel;
 import javax.swing.JScrollPane;
 import javax.swing.JButton;
 import javax.swing.JFrame;
 import javax.swing.JList;
 import javax.swing.BorderFactory;
 import javax.swing.BoxLayout;
-import javax.swing.ImageIcon;
 import javax.swing.ListSelectionModel;
 
 import java.awt.FlowLayout;
-import java.awt.Image;
 import java.awt.Color;
 import java.awt.Container;
 import java.awt.BorderLayout;
 import java.awt.Dimension;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import controller.NewGuiController;
-
-import static java.awt.image.BufferedImage.TYPE_INT_RGB;
+import model.ImageConverter;
 
 /**
  * Adds GUI functionality to the view using JSwing graphics. Adds buttons to load and save as
@@ -39,7 +35,7 @@ public final class JavaSwingView extends JFrame implements GuiView {
   private JPanel listBoxes;
   private JPanel filterList;
   private JPanel end;
-  private JLabel imgName;
+  private ImagePanel imgName;
   private JScrollPane imgWindow;
   private JButton openButton;
   private JButton saveButton;
@@ -47,6 +43,8 @@ public final class JavaSwingView extends JFrame implements GuiView {
   private DefaultListModel<String> imgPixels;
   private JList<String> imgList;
   private JList<String> cmdList;
+  // what is drawn for each image, shared with the image where possible so switching is instant
+  private final Map<model.Image, BufferedImage> displayed = new WeakHashMap<>();
 
   /**
    * Initializes the view box and takes in dimensions for the project's borders.
@@ -118,45 +116,12 @@ public final class JavaSwingView extends JFrame implements GuiView {
 
   @Override
   public void updateToCurrent(String imageName, model.Image toSave) {
-    BufferedImage src = new BufferedImage(toSave.getWidth(), toSave.getHeight(), TYPE_INT_RGB);
-
-    for (int col = 0; col < src.getHeight(); col++) {
-      for (int row = 0; row < src.getWidth(); row++) {
-        Color color = new Color(
-                toSave.getPixel(col, row).getRed(),
-                toSave.getPixel(col, row).getGreen(),
-                toSave.getPixel(col, row).getBlue(),
-                toSave.getPixel(col, row).getAlpha());
-        src.setRGB(row, col, color.getRGB());
-      }
-    }
-
-    ByteArrayOutputStream stream = new ByteArrayOutputStream();
-    try {
-      ImageIO.write(src, "jpg", stream);
-    } catch (IOException e) {
-      this.renderMessage("Unable to render image.");
-      return;
+    BufferedImage shown = this.displayed.get(toSave);
+    if (shown == null) {
+      shown = ImageConverter.asBufferedImage(toSave);
+      this.displayed.put(toSave, shown);
     }
-
-    byte[] bytes = stream.toByteArray();
-    ImageIcon img1 = new ImageIcon(bytes);
-    ImageIcon img2 = img1;
-
-    if (img1.getIconWidth() < 400 || img1.getIconHeight() < 400) {
-      double wFrac = (double) imgWindow.getWidth() / (double) img1.getIconWidth();
-      double hFrac = (double) imgWindow.getHeight() / (double) img1.getIconHeight();
-      double ratio = Math.min(wFrac, hFrac);
-
-      Dimension dimension = new Dimension((int) (img1.getIconWidth() * ratio),
-              (int) (img1.getIconHeight() * ratio));
-
-      Image img = img1.getImage();
-      img2 = new ImageIcon(img.getScaledInstance(dimension.width, dimension.height,
-              Image.SCALE_SMOOTH));
-    }
-
-    this.imgName.setIcon(img2);
+    this.imgName.setImage(shown, this.imgWindow.getViewport().getSize());
   }
 
   @Override
@@ -205,7 +170,8 @@ public final class JavaSwingView extends JFrame implements GuiView {
    * Creates the area which to view the image.
    */
   private void makeImgBorder() {
-    imgName = new JLabel();
+    imgName = new ImagePanel();
+    imgName.setBackground(Color.WHITE);
     imgWindow = new JScrollPane(imgName);
     imgWindow.setPreferredSize(new Dimension(900, 470));
   }
@@ -4,14 +4,25 @@ import model.*;
 import org.junit.Test;
 
 import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.File;
 import java.io.InputStreamReader;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.StringReader;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 
 import view.CollageView;
 import view.CollageViewImpl;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 
 /**
@@ -76,6 +87,965 @@ public class CollageTest {
     assertEquals(1, img.getWidth());
   }
 
+  @Test
+  public void testRasterImage() {
+    RasterImage img = new RasterImage("r", 2, 1, 255);
+    img.setArgb(1, 0, RasterImage.pack(255, 100, 50));
+    assertEquals(0xFFFF6432, img.getArgb(1, 0));
+    assertEquals(100, img.getPixel(0, 1).getGreen());
+    assertEquals(2, img.getWidth());
+    assertEquals(1, img.getHeight());
+  }
+
+  @Test
+  public void testRasterImageRow() {
+    int[] data = {1, 2, 3, 4, 5, 6};
+    Image img = new RasterImage("r", data, 1, 3, 2, 2, 255);
+    int[] row = new int[2];
+    img.getRow(1, row, 0);
+    assertEquals(5, row[0]);
+    assertEquals(6, row[1]);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRasterImageTooSmall() {
+    new RasterImage("r", new int[3], 0, 2, 2, 2, 255);
+  }
+
+  @Test
+  public void testPixelKernels() {
+    int p = RasterImage.pack(10, 20, 250);
+    assertEquals(RasterImage.pack(255, 255, 255), PixelKernels.BRIGHTEN_VALUE.apply(p));
+    assertEquals(RasterImage.pack(0, 0, 157), PixelKernels.DARKEN_INTENSITY.apply(p));
+    assertEquals(RasterImage.pack(0, 20, 0), PixelKernels.GREEN_COMPONENT.apply(p));
+  }
+
+  @Test
+  public void testDifferenceKernel() {
+    int[] other = {RasterImage.pack(5, 5, 5), RasterImage.pack(200, 0, 0)};
+    RowKernel k = PixelKernels.difference(new RasterImage("o", other, 0, 2, 2, 1, 255));
+    int[] src = {RasterImage.pack(10, 0, 5), RasterImage.pack(100, 0, 0)};
+    int[] dest = new int[2];
+    k.applyRow(0, src, 0, dest, 0, 2);
+    assertEquals(RasterImage.pack(5, 5, 0), dest[0]);
+    assertEquals(RasterImage.pack(100, 0, 0), dest[1]);
+  }
+
+  @Test
+  public void testParallelMatchesSequential() throws FileNotFoundException {
+    CollageModel seq = new CollageModelImpl();
+    CollageModel par = new CollageModelImpl(4, 1000);
+    seq.load("./res/k.PPM", "g");
+    par.load("./res/k.PPM", "g");
+    seq.brightenLuma("g", "b");
+    par.brightenLuma("g", "b");
+    Image s = seq.getImage("b");
+    Image p = par.getImage("b");
+    for (int y = 0; y < s.getHeight(); y++) {
+      for (int x = 0; x < s.getWidth(); x++) {
+        assertEquals(s.getArgb(x, y), p.getArgb(x, y));
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBadParallelism() {
+    new CollageModelImpl(0);
+  }
+
+  @Test
+  public void testPipelineMatchesSteps() throws FileNotFoundException {
+    CollageModel ipm = new CollageModelImpl();
+    ipm.load("./res/k.PPM", "g");
+    ipm.brightenLuma("g", "a");
+    ipm.redComponent("a", "b");
+    ipm.darkenValue("b", "c");
+    ipm.pipeline("g", "d", Arrays.asList("brighten-luma", "red-component",
+            "darken-value"));
+    Image c = ipm.getImage("c");
+    Image d = ipm.getImage("d");
+    for (int y = 0; y < c.getHeight(); y++) {
+      for (int x = 0; x < c.getWidth(); x++) {
+        assertEquals(c.getArgb(x, y), d.getArgb(x, y));
+      }
+    }
+  }
+
+  @Test
+  public void testFusedPointwiseRowMatchesStages() {
+    List<PixelKernel> stages = Arrays.asList(PixelKernels.BRIGHTEN_LUMA,
+            PixelKernels.darkenMultiply(0.5), PixelKernels.DARKEN_VALUE);
+    RowKernel inner = FusedKernel.of(stages.subList(0, 2));
+    PixelKernel fused = (PixelKernel) FusedKernel.of(Arrays.asList(inner, stages.get(2)));
+    int[] src = new int[300];
+    for (int i = 0; i < src.length; i++) {
+      src[i] = RasterImage.pack(i % 256, (i * 7) % 256, (i * 31) % 256);
+    }
+    int[] expected = src.clone();
+    for (PixelKernel stage : stages) {
+      stage.applyRow(0, expected, 0, expected, 0, expected.length);
+    }
+    int[] row = new int[src.length + 2];
+    fused.applyRow(0, src, 0, row, 2, src.length);
+    for (int i = 0; i < src.length; i++) {
+      assertEquals(expected[i], row[i + 2]);
+      assertEquals(expected[i], fused.apply(src[i]));
+    }
+  }
+
+  @Test
+  public void testFusedKernelWithRowStage() {
+    int[] other = {RasterImage.pack(0, 0, 100)};
+    RowKernel k = FusedKernel.of(Arrays.asList(PixelKernels.BLUE_COMPONENT,
+            PixelKernels.difference(new RasterImage("o", other, 0, 1, 1, 1, 255)),
+            PixelKernels.BRIGHTEN_VALUE));
+    int[] row = {RasterImage.pack(50, 60, 30)};
+    k.applyRow(0, row, 0, row, 0, 1);
+    assertEquals(RasterImage.pack(70, 70, 140), row[0]);
+  }
+
+  @Test
+  public void testPipelineCommand() throws IOException {
+    Readable ir = new StringReader("g d brighten-luma green-component\nq");
+    CollageModel ipm = new CollageModelImpl();
+    ipm.load("./res/k.PPM", "g");
+    StringBuilder log = new StringBuilder();
+    CollageView ipv = new CollageViewImpl(ipm, log);
+    CollageControllerImpl c = new CollageControllerImpl(ipm, ipv, ir);
+    c.pipeline();
+    assertEquals("g was saved as d after applying brighten-luma, green-component\n",
+            log.toString());
+    assertEquals(0, ipm.getImage("d").getPixel(0, 0).getRed());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testPipelineBadFilter() throws FileNotFoundException {
+    CollageModel ipm = new CollageModelImpl();
+    ipm.load("./res/k.PPM", "g");
+    ipm.pipeline("g", "d", Arrays.asList("blur"));
+  }
+
+  @Test
+  public void testLazyFilter() throws FileNotFoundException {
+    CollageModelImpl ipm = new CollageModelImpl();
+    ipm.setLazy(true);
+    ipm.load("./res/k.PPM", "g");
+    ipm.brightenIntensity("g", "a");
+    ipm.redComponent("a", "b");
+    DeferredImage a = (DeferredImage) ipm.getImage("a");
+    DeferredImage b = (DeferredImage) ipm.getImage("b");
+    assertEquals(false, a.isEvaluated());
+    assertEquals(false, b.isEvaluated());
+    assertEquals(228, b.getWidth());
+    assertEquals(false, b.isEvaluated());
+    assertEquals(87, b.getPixel(0, 0).getRed());
+    assertEquals(true, b.isEvaluated());
+    assertEquals(false, a.isEvaluated());
+    assertEquals(92, a.getPixel(0, 0).getRed());
+  }
+
+  @Test
+  public void testFilterCacheHit() throws FileNotFoundException {
+    CollageModelImpl ipm = new CollageModelImpl();
+    ipm.load("./res/k.PPM", "g");
+    ipm.darkenLuma("g", "a");
+    ipm.darkenLuma("g", "b");
+    FilterCache cache = ipm.getFilterCache();
+    assertEquals(1, cache.getMisses());
+    assertEquals(1, cache.getHits());
+    assertEquals("b", ipm.getImage("b").getName());
+    assertEquals(ipm.getImage("a").getArgb(3, 4), ipm.getImage("b").getArgb(3, 4));
+    assertEquals(4L * 228 * 195, cache.getBytes());
+  }
+
+  @Test
+  public void testFilterCacheEviction() {
+    FilterCache cache = new FilterCache(4 * 9);
+    Image src = new RasterImage("s", 1, 1, 255);
+    cache.put(new FilterCache.Key(src, "a"), new RasterImage("a", 2, 3, 255));
+    cache.put(new FilterCache.Key(src, "b"), new RasterImage("b", 2, 2, 255));
+    assertEquals(null, cache.get(new FilterCache.Key(src, "a")));
+    assertEquals(1, cache.getEvictions());
+    assertEquals(16, cache.getBytes());
+  }
+
+  @Test
+  public void testFilterCacheDropsResultsOfCollectedSources() throws InterruptedException {
+    FilterCache cache = new FilterCache(1 << 20);
+    Image src = new RasterImage("s", 1, 1, 255);
+    cache.put(new FilterCache.Key(src, "a"), new RasterImage("a", 2, 3, 255));
+    WeakReference<Image> collected = new WeakReference<>(src);
+    src = null;
+    for (int i = 0; i < 50 && collected.get() != null; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertEquals(null, collected.get());
+    cache.put(new FilterCache.Key(new RasterImage("t", 1, 1, 255), "b"),
+            new RasterImage("b", 2, 2, 255));
+    assertEquals(16, cache.getBytes());
+  }
+
+  @Test
+  public void testFilterCacheWithinMemoryCeiling() throws FileNotFoundException {
+    long imageBytes = 4L * 228 * 195;
+    CollageModelImpl ipm = new CollageModelImpl();
+    ipm.setMemoryCeiling(3 * imageBytes);
+    ipm.load("./res/k.PPM", "g");
+    ipm.darkenLuma("g", "a");
+    // g and a leave room for one cached result
+    assertEquals(imageBytes, ipm.getFilterCache().getBytes());
+    ipm.brightenLuma("g", "b");
+    // g, a and b fill the ceiling, so nothing is left for the cache
+    assertEquals(0, ipm.getFilterCache().getBytes());
+  }
+
+  @Test
+  public void testSpillToDisk() throws FileNotFoundException {
+    CollageModelImpl ipm = new CollageModelImpl();
+    ipm.load("./res/k.PPM", "g");
+    ipm.brightenValue("g", "a");
+    ipm.setMemoryCeiling(4L * 228 * 195);
+    Image a = ipm.getImage("a");
+    Image g = ipm.getImage("g");
+    assertEquals(false, a == ipm.getImage("a"));
+    assertEquals(a.getArgb(5, 7), ipm.getImage("a").getArgb(5, 7));
+    assertEquals("a", ipm.getImage("a").getName());
+    assertEquals(g.getMaxValue(), ipm.getImage("g").getMaxValue());
+    assertEquals(g.getArgb(227, 194), ipm.getImage("g").getArgb(227, 194));
+  }
+
+  @Test
+  public void testLargeProjectOffHeap() {
+    CollageModelImpl ipm = new CollageModelImpl();
+    ipm.createNewProject(2500, 2000);
+    ipm.addLayer();
+    LayerImpl layer = ipm.getLayers().get(0);
+    assertEquals(255, layer.getPixel(2499, 1999).getBlue());
+    assertEquals(true, ImageUtil.createRaster("", 2500, 2000, 255) instanceof OffHeapImage);
+  }
+
+  @Test
+  public void testProjectOverBudget() {
+    CollageModelImpl ipm = new CollageModelImpl();
+    ipm.setCanvasBudget(4L * 500 * 500);
+    ipm.createNewProject(501, 500);
+    ipm.addLayer();
+    LayerImpl layer = ipm.getLayers().get(0);
+    assertEquals(255, layer.getPixel(500, 499).getGreen());
+    assertEquals(255, layer.getPixel(0, 0).getAlpha());
+  }
+
+  @Test
+  public void testTiledImage() {
+    int white = RasterImage.pack(255, 255, 255);
+    TiledImage img = new TiledImage("t", 600, 300, 255, white);
+    int[] row = new int[600];
+    for (int x = 0; x < 600; x++) {
+      row[x] = RasterImage.pack(x % 256, x / 256, 7);
+    }
+    img.setRow(257, row, 0);
+    img.setArgb(599, 0, RasterImage.pack(1, 2, 3));
+    int[] back = new int[600];
+    img.getRow(257, back, 0);
+    assertArrayEquals(row, back);
+    assertEquals(white, img.getArgb(0, 0));
+    assertEquals(white, img.getArgb(0, 299));
+    assertEquals(2, img.getPixel(0, 599).getGreen());
+    assertEquals(3, img.withName("u").getArgb(599, 0) & 0xFF);
+    assertEquals(2, img.getTileRows());
+  }
+
+  @Test
+  public void testTiledFilterMatchesRaster() {
+    TiledImage tiled = new TiledImage("t", 300, 260, 255);
+    RasterImage raster = new RasterImage("r", 300, 260, 255);
+    int[] row = new int[300];
+    for (int y = 0; y < 260; y += 3) {
+      for (int x = 0; x < 300; x++) {
+        row[x] = RasterImage.pack((x * y) % 256, x % 256, y % 256);
+      }
+      tiled.setRow(y, row, 0);
+      raster.setRow(y, row, 0);
+    }
+    TiledImage result = new TiledImage("t2", 300, 260, 255);
+    for (int tileRow = 0; tileRow < tiled.getTileRows(); tileRow++) {
+      result.applyToTileRow(PixelKernels.BRIGHTEN_LUMA, tiled, tileRow);
+    }
+    int[] expected = new int[300];
+    int[] actual = new int[300];
+    for (int y = 0; y < 260; y++) {
+      raster.getRow(y, row, 0);
+      PixelKernels.BRIGHTEN_LUMA.applyRow(y, row, 0, expected, 0, 300);
+      result.getRow(y, actual, 0);
+      assertArrayEquals(expected, actual);
+    }
+  }
+
+  @Test
+  public void testOffHeapImage() {
+    WritableImage img = new OffHeapImage("o", 3, 2, 255);
+    img.setRow(1, new int[] {7, 8, 9, 10}, 1);
+    img.setArgb(0, 0, RasterImage.pack(1, 2, 3));
+    int[] row = new int[3];
+    img.getRow(1, row, 0);
+    assertEquals(8, row[0]);
+    assertEquals(10, row[2]);
+    assertEquals(2, img.getPixel(0, 0).getGreen());
+    assertEquals(9, img.withName("p").getArgb(1, 1));
+  }
+
+  @Test
+  public void testRgbToHsl() {
+    double[] hsl = new double[3];
+    for (int v = 0; v < 256; v += 15) {
+      Pixel p = new PixelImpl(new Color(v, 255 - v, v / 2));
+      HashMap<String, Double> map = p.convertRGBtoHSL();
+      PixelImpl.rgbToHsl(v, 255 - v, v / 2, hsl);
+      assertEquals(map.get("h"), hsl[0], 0);
+      assertEquals(map.get("s"), hsl[1], 0);
+      assertEquals(map.get("l"), hsl[2], 0);
+    }
+    assertEquals(RasterImage.pack(255, 0, 0), PixelImpl.hslToArgb(0, 1, 0.5));
+    assertEquals(RasterImage.pack(255, 255, 255), PixelImpl.hslToArgb(0, 1, 1.5));
+    assertEquals(RasterImage.pack(0, 0, 0), PixelImpl.hslToArgb(0, 1, -0.5));
+  }
+
+  @Test
+  public void testLightnessKernelClampsChannels() {
+    int screened = PixelKernels.brightenScreen(2.0).apply(RasterImage.pack(200, 100, 50));
+    assertEquals(0xFF, screened >>> 24);
+    for (int shift = 0; shift < 24; shift += 8) {
+      assertEquals(255, (screened >> shift) & 0xFF);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDarkenMultiplyNegativeIncrement() {
+    PixelKernels.darkenMultiply(-1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBrightenScreenNaNIncrement() {
+    PixelKernels.brightenScreen(Double.NaN);
+  }
+
+  @Test
+  public void testLightnessKernelRow() {
+    PixelKernel k = PixelKernels.brightenScreen(0);
+    int[] src = {RasterImage.pack(10, 200, 30), RasterImage.pack(255, 255, 255),
+        RasterImage.pack(90, 40, 140)};
+    int[] dest = new int[3];
+    k.applyRow(0, src, 0, dest, 0, 3);
+    for (int i = 0; i < 3; i++) {
+      assertEquals(k.apply(src[i]), dest[i]);
+    }
+  }
+
+  @Test
+  public void testChannelKernelRows() {
+    PixelKernel[] kernels = {PixelKernels.BRIGHTEN_VALUE, PixelKernels.BRIGHTEN_LUMA,
+        PixelKernels.BRIGHTEN_INTENSITY, PixelKernels.DARKEN_VALUE, PixelKernels.DARKEN_LUMA,
+        PixelKernels.DARKEN_INTENSITY};
+    int[] src = new int[103];
+    for (int i = 0; i < src.length; i++) {
+      src[i] = RasterImage.pack((i * 37) % 256, (i * 11) % 256, 255 - i);
+    }
+    int[] dest = new int[100];
+    for (PixelKernel k : kernels) {
+      k.applyRow(0, src, 3, dest, 0, 100);
+      for (int i = 0; i < 100; i++) {
+        assertEquals(k.apply(src[i + 3]), dest[i]);
+      }
+    }
+  }
+
+  @Test
+  public void testToneCurveLevels() {
+    ToneCurve identity = ToneCurve.levels(0, 255, 1);
+    assertEquals(RasterImage.pack(12, 130, 250), identity.apply(RasterImage.pack(12, 130, 250)));
+    ToneCurve stretch = ToneCurve.levels(50, 150, 1);
+    assertEquals(RasterImage.pack(0, 128, 255), stretch.apply(RasterImage.pack(40, 100, 200)));
+    assertSame(stretch, ToneCurve.levels(50, 150, 1));
+  }
+
+  @Test
+  public void testToneCurvePoints() {
+    ToneCurve invert = ToneCurve.curve(new int[] {0, 255}, new int[] {255, 0});
+    assertEquals(RasterImage.pack(255, 155, 0), invert.apply(RasterImage.pack(0, 100, 255)));
+    ToneCurve steps = ToneCurve.curve(new int[] {100, 200}, new int[] {20, 220});
+    assertEquals(RasterImage.pack(20, 120, 220), steps.apply(RasterImage.pack(3, 150, 201)));
+    assertEquals(invert, new ToneCurve(invertTable(), invertTable(), invertTable()));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testToneCurveBadPoints() {
+    ToneCurve.curve(new int[] {100, 100}, new int[] {0, 255});
+  }
+
+  @Test
+  public void testLevelsAndCurvesCommands() throws IOException {
+    Readable ir = new StringReader("levels g l 0 255 1\ncurves g c 0 255 255 0\nq");
+    CollageModel ipm = new CollageModelImpl();
+    ipm.load("./res/k.PPM", "g");
+    StringBuilder log = new StringBuilder();
+    CollageView ipv = new CollageViewImpl(ipm, log);
+    new CollageControllerImpl(ipm, ipv, ir).run();
+    Pixel original = ipm.getImage("g").getPixel(3, 4);
+    assertEquals(original.getGreen(), ipm.getImage("l").getPixel(3, 4).getGreen());
+    assertEquals(255 - original.getBlue(), ipm.getImage("c").getPixel(3, 4).getBlue());
+  }
+
+  @Test
+  public void testDarkenMultiplyIncrement() throws FileNotFoundException {
+    CollageModel ipm = new CollageModelImpl();
+    ipm.load("./res/k.PPM", "g");
+    ipm.darkenMultiply("g", "d", 0);
+    assertEquals(0, ipm.getImage("d").getPixel(0, 0).getRed());
+    ipm.brightenScreen("g", "b", 1);
+    assertEquals(255, ipm.getImage("b").getPixel(0, 0).getGreen());
+  }
+
+  private static int[] invertTable() {
+    int[] table = new int[ToneCurve.SIZE];
+    for (int i = 0; i < table.length; i++) {
+      table[i] = 255 - i;
+    }
+    return table;
+  }
+
+  @Test
+  public void testColorLutIdentity() {
+    ColorLut lut = ColorLut.bake(argb -> argb, 17);
+    for (int v = 0; v < 256; v += 5) {
+      int argb = RasterImage.pack(v, 255 - v, v / 3);
+      assertEquals(argb, lut.apply(argb));
+    }
+  }
+
+  @Test
+  public void testColorLutExactBake() {
+    PixelKernel chain = (PixelKernel) FusedKernel.of(Arrays.asList(PixelKernels.BRIGHTEN_LUMA,
+        PixelKernels.DARKEN_VALUE, PixelKernels.GREEN_COMPONENT));
+    ColorLut lut = ColorLut.bake(chain, 256);
+    for (int c = 0; c < (1 << 24); c += 9973) {
+      assertEquals(chain.apply(0xFF000000 | c), lut.apply(0xFF000000 | c));
+    }
+  }
+
+  @Test
+  public void testColorLutDomainMapsInputs() throws IOException {
+    File cube = File.createTempFile("domain", ".cube");
+    cube.deleteOnExit();
+    // an identity grid over inputs from 0 to 0.5, so brighter inputs use the top edge
+    Files.writeString(cube.toPath(), "LUT_3D_SIZE 2\nDOMAIN_MIN 0 0 0\nDOMAIN_MAX 0.5 0.5 0.5\n"
+            + "0 0 0\n0.5 0 0\n0 0.5 0\n0.5 0.5 0\n0 0 0.5\n0.5 0 0.5\n0 0.5 0.5\n"
+            + "0.5 0.5 0.5\n");
+    ColorLut lut = ColorLut.read(cube.toPath());
+    assertEquals(RasterImage.pack(64, 10, 128), lut.apply(RasterImage.pack(64, 10, 200)));
+    lut.write(cube.getPath());
+    ColorLut back = ColorLut.read(cube.toPath());
+    assertEquals(RasterImage.pack(64, 10, 128), back.apply(RasterImage.pack(64, 10, 200)));
+  }
+
+  @Test
+  public void testLutCommands() throws IOException {
+    File cube = File.createTempFile("grade", ".cube");
+    cube.deleteOnExit();
+    Readable ir = new StringReader("bake-lut g " + cube.getPath()
+            + " 33 blue-component\nlut g d " + cube.getPath() + "\nq");
+    CollageModel ipm = new CollageModelImpl();
+    ipm.load("./res/k.PPM", "g");
+    StringBuilder log = new StringBuilder();
+    CollageView ipv = new CollageViewImpl(ipm, log);
+    new CollageControllerImpl(ipm, ipv, ir).run();
+    Pixel original = ipm.getImage("g").getPixel(5, 5);
+    Pixel graded = ipm.getImage("d").getPixel(5, 5);
+    assertEquals(0, graded.getRed());
+    assertEquals(0, graded.getGreen());
+    assertEquals(original.getBlue(), graded.getBlue());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBakeLutBadSize() throws IOException {
+    CollageModel ipm = new CollageModelImpl();
+    ipm.load("./res/k.PPM", "g");
+    ipm.bakeLut("g", Arrays.asList("red-component"), 1, "unused.cube");
+  }
+
+  @Test
+  public void testReadPpmComments() throws IOException {
+    File ppm = File.createTempFile("comments", ".ppm");
+    ppm.deleteOnExit();
+    Files.writeString(ppm.toPath(), "P3# magic\n# size\n2 #width\n1\n255\n"
+            + "1 2 3#first pixel\n  4\t5\r\n6");
+    Image img = ImageUtil.readPPM(ppm.getPath());
+    assertEquals(2, img.getWidth());
+    assertEquals(1, img.getHeight());
+    assertEquals(RasterImage.pack(1, 2, 3), img.getArgb(0, 0));
+    assertEquals(RasterImage.pack(4, 5, 6), img.getArgb(1, 0));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testReadPpmTruncated() throws IOException {
+    File ppm = File.createTempFile("short", ".ppm");
+    ppm.deleteOnExit();
+    Files.writeString(ppm.toPath(), "P3\n2 1\n255\n1 2 3 4");
+    ImageUtil.readPPM(ppm.getPath());
+  }
+
+  @Test
+  public void testLoadPpmUsesFileName() {
+    CollageModel ipm = new CollageModelImpl();
+    ipm.loadPPM("./res/k.PPM");
+    assertEquals(228, ipm.getImage("k").getWidth());
+  }
+
+  @Test
+  public void testRawPpmRoundTrip() throws IOException {
+    File raw = File.createTempFile("raw", ".ppm");
+    raw.deleteOnExit();
+    CollageModel ipm = new CollageModelImpl();
+    ipm.load("./res/k.PPM", "g");
+    ipm.save(raw.getPath(), "g", FileType.raw);
+    assertEquals(15 + 3L * 228 * 195, raw.length());
+    ipm.load(raw.getPath(), "t");
+    Image g = ipm.getImage("g");
+    Image t = ipm.getImage("t");
+    for (int y = 0; y < g.getHeight(); y += 7) {
+      for (int x = 0; x < g.getWidth(); x += 5) {
+        assertEquals(g.getArgb(x, y), t.getArgb(x, y));
+      }
+    }
+  }
+
+  @Test
+  public void testRawPpmSixteenBit() throws IOException {
+    File raw = File.createTempFile("deep", ".ppm");
+    raw.deleteOnExit();
+    RasterImage img = new RasterImage("d", 2, 1, 65535);
+    img.setArgb(0, 0, RasterImage.pack(255, 128, 0));
+    img.setArgb(1, 0, RasterImage.pack(1, 2, 3));
+    ImageUtil.saveRawPPM(img, raw.getPath());
+    assertEquals(13 + 12, raw.length());
+    Image back = ImageUtil.readPPM(raw.getPath());
+    // the samples are scaled to 8 bits, so the max value is too
+    assertEquals(255, back.getMaxValue());
+    assertEquals(img.getArgb(0, 0), back.getArgb(0, 0));
+    assertEquals(img.getArgb(1, 0), back.getArgb(1, 0));
+  }
+
+  @Test
+  public void testSixteenBitPpmSavesAsPlain() throws IOException {
+    File raw = File.createTempFile("deep", ".ppm");
+    raw.deleteOnExit();
+    File plain = File.createTempFile("plain", ".ppm");
+    plain.deleteOnExit();
+    Files.write(raw.toPath(), new byte[] {'P', '6', ' ', '1', ' ', '1', ' ', '6', '5', '5',
+        '3', '5', '\n', (byte) 0xFF, (byte) 0xFF, 0, 0, (byte) 0x80, (byte) 0x80});
+    CollageModel ipm = new CollageModelImpl();
+    ipm.load(raw.getPath(), "d");
+    ImageUtil.savePPM(ipm.getImage("d"), plain.getPath());
+    String nl = System.lineSeparator();
+    assertEquals("P3" + nl + "1 1" + nl + "255" + nl + "255" + nl + "0" + nl + "128" + nl,
+            Files.readString(plain.toPath()));
+    Image back = ImageUtil.readPPM(plain.getPath());
+    assertEquals(RasterImage.pack(255, 0, 128), back.getArgb(0, 0));
+    assertEquals(255, back.getMaxValue());
+  }
+
+  @Test
+  public void testRawPpmHeaderComment() throws IOException {
+    File raw = File.createTempFile("comment", ".ppm");
+    raw.deleteOnExit();
+    Files.write(raw.toPath(), new byte[] {'P', '6', '#', 'x', '\n', '1', ' ', '1',
+        ' ', '2', '5', '5', '\n', (byte) 200, 10, 32});
+    assertEquals(RasterImage.pack(200, 10, 32), ImageUtil.readPPM(raw.getPath()).getArgb(0, 0));
+  }
+
+  @Test
+  public void testSavePpmValuesPerLine() throws IOException {
+    File ppm = File.createTempFile("lines", ".ppm");
+    ppm.deleteOnExit();
+    RasterImage img = new RasterImage("i", 2, 1, 255);
+    img.setArgb(0, 0, RasterImage.pack(1, 22, 255));
+    img.setArgb(1, 0, RasterImage.pack(0, 9, 100));
+    String nl = System.lineSeparator();
+    ImageUtil.savePPM(img, ppm.getPath(), 4);
+    assertEquals("P3" + nl + "2 1" + nl + "255" + nl + "1 22 255 0" + nl + "9 100" + nl,
+            Files.readString(ppm.toPath()));
+    ImageUtil.savePPM(img, ppm.getPath());
+    assertEquals("P3" + nl + "2 1" + nl + "255" + nl + "1" + nl + "22" + nl + "255" + nl
+            + "0" + nl + "9" + nl + "100" + nl, Files.readString(ppm.toPath()));
+  }
+
+  @Test
+  public void testStreamPpmMatchesPipeline() throws IOException {
+    File streamed = File.createTempFile("streamed", ".ppm");
+    File saved = File.createTempFile("saved", ".ppm");
+    streamed.deleteOnExit();
+    saved.deleteOnExit();
+    List<String> filters = Arrays.asList("brighten-luma", "blue-component");
+    ImageUtil.streamPPM("./res/k.PPM", streamed.getPath(), filters);
+    CollageModel ipm = new CollageModelImpl();
+    ipm.load("./res/k.PPM", "g");
+    ipm.pipeline("g", "p", filters);
+    ImageUtil.savePPM(ipm.getImage("p"), saved.getPath());
+    assertEquals(Files.readString(saved.toPath()),
+            Files.readString(streamed.toPath()));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testStreamPpmNeedsPointwiseFilter() throws IOException {
+    ImageUtil.streamPPM("./res/k.PPM", "unused.ppm", Arrays.asList("difference"));
+  }
+
+  @Test
+  public void testStreamBlurUsesNeighbouringRows() throws IOException {
+    File in = File.createTempFile("column", ".ppm");
+    File out = File.createTempFile("blurred", ".ppm");
+    in.deleteOnExit();
+    out.deleteOnExit();
+    Files.writeString(in.toPath(), "P3 1 5 255 0 0 0 0 0 0 160 160 160 0 0 0 "
+            + "0 0 0");
+    ImageUtil.streamPPM(in.getPath(), out.getPath(), Arrays.asList("blur"));
+    Image img = ImageUtil.readPPM(out.getPath());
+    int[] expected = {0, 40, 80, 40, 0};
+    for (int y = 0; y < expected.length; y++) {
+      assertEquals(RasterImage.pack(expected[y], expected[y], expected[y]), img.getArgb(0, y));
+    }
+  }
+
+  @Test
+  public void testStreamSharpenKeepsFlatImage() throws IOException {
+    File out = File.createTempFile("sharpened", ".ppm");
+    out.deleteOnExit();
+    RasterImage flat = new RasterImage("f", 3, 7, 255);
+    for (int y = 0; y < 7; y++) {
+      for (int x = 0; x < 3; x++) {
+        flat.setArgb(x, y, RasterImage.pack(100, 50, 25));
+      }
+    }
+    ImageUtil.savePPM(flat, out.getPath());
+    ImageUtil.streamPPM(out.getPath(), out.getPath() + ".out",
+            Arrays.asList("sharpen", "blur", "red-component"));
+    new File(out.getPath() + ".out").deleteOnExit();
+    Image img = ImageUtil.readPPM(out.getPath() + ".out");
+    for (int y = 0; y < 7; y++) {
+      for (int x = 0; x < 3; x++) {
+        assertEquals(RasterImage.pack(25, 0, 0), img.getArgb(x, y));
+      }
+    }
+  }
+
+  @Test
+  public void testConvertBufferedImageLayouts() {
+    int[] types = {BufferedImage.TYPE_INT_RGB,
+        BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_3BYTE_BGR,
+        BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_BYTE_GRAY};
+    for (int type : types) {
+      BufferedImage source = new BufferedImage(5, 4, type);
+      for (int y = 0; y < 4; y++) {
+        for (int x = 0; x < 5; x++) {
+          source.setRGB(x, y, 0x80000000 | (x * 40) << 16 | (y * 50) << 8 | (x * y * 10));
+        }
+      }
+      WritableImage img = ImageConverter.fromBufferedImage("b", source, 4, 3);
+      assertEquals(4, img.getWidth());
+      assertEquals(3, img.getHeight());
+      assertEquals(255, img.getMaxValue());
+      int opaque = source.getColorModel().hasAlpha() ? 0 : 0xFF000000;
+      for (int y = 0; y < 3; y++) {
+        for (int x = 0; x < 4; x++) {
+          assertEquals(source.getRGB(x, y) | opaque, img.getArgb(x, y));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testConvertToBufferedImage() throws FileNotFoundException {
+    Image img = ImageUtil.readPPM("./res/k.PPM");
+    BufferedImage out = ImageConverter.toBufferedImage(img);
+    assertEquals(img.getWidth(), out.getWidth());
+    assertEquals(img.getHeight(), out.getHeight());
+    for (int y = 0; y < img.getHeight(); y += 9) {
+      for (int x = 0; x < img.getWidth(); x += 4) {
+        assertEquals(img.getArgb(x, y), out.getRGB(x, y));
+      }
+    }
+  }
+
+  @Test
+  public void testAsBufferedImageSharesRaster() {
+    int[] data = new int[4 * 3];
+    RasterImage window = new RasterImage("w", data, 5, 4, 2, 1, 255);
+    BufferedImage shown = ImageConverter.asBufferedImage(window);
+    assertEquals(2, shown.getWidth());
+    assertEquals(1, shown.getHeight());
+    window.setArgb(1, 0, RasterImage.pack(7, 8, 9));
+    assertEquals(RasterImage.pack(7, 8, 9), shown.getRGB(1, 0));
+    assertEquals(0xFF000000, shown.getRGB(0, 0));
+  }
+
+  @Test
+  public void testAsBufferedImageSharesDeferredResult() throws FileNotFoundException {
+    CollageModelImpl ipm = new CollageModelImpl();
+    ipm.setLazy(true);
+    ipm.load("./res/k.PPM", "k");
+    ipm.redComponent("k", "r");
+    Image red = ipm.getImage("r");
+    assertTrue(red instanceof DeferredImage);
+    BufferedImage shown = ImageConverter.asBufferedImage(red);
+    WritableImage evaluated = ((DeferredImage) red).evaluate();
+    assertEquals(red.getArgb(3, 4), shown.getRGB(3, 4));
+    evaluated.setArgb(3, 4, RasterImage.pack(7, 8, 9));
+    assertEquals(RasterImage.pack(7, 8, 9), shown.getRGB(3, 4));
+  }
+
+  @Test
+  public void testCompositorOverIsExact() {
+    for (int a = 0; a < 256; a++) {
+      for (int c = 0; c <= a; c += 3) {
+        for (int d = 0; d < 256; d += 5) {
+          int over = Compositor.over(a << 24 | c << 16 | c << 8 | c, 0xFF000000 | d << 8);
+          int expected = c + (int) Math.round(d * (255 - a) / 255.0);
+          assertEquals(0xFF, over >>> 24);
+          assertEquals(expected, (over >> 8) & 0xFF);
+          assertEquals(c, over & 0xFF);
+        }
+      }
+    }
+    assertEquals(0x80402010, Compositor.unpremultiply(Compositor.premultiply(0x80402010)));
+  }
+
+  @Test
+  public void testPlaceTranslucentImage() {
+    CollageModelImpl ipm = new CollageModelImpl();
+    ipm.createNewProject(200, 150);
+    ipm.addLayer();
+    RasterImage img = new RasterImage("t", 60, 40, 255);
+    for (int y = 0; y < 40; y++) {
+      for (int x = 0; x < 60; x++) {
+        img.setArgb(x, y, 0x800000FF);
+      }
+    }
+    LayerImpl layer = ipm.getLayers().get(0);
+    layer.placeImage("t", img, 170, 130);
+    Pixel blended = layer.getPixel(170, 130);
+    assertEquals(255, blended.getAlpha());
+    assertEquals(127, blended.getRed());
+    assertEquals(255, blended.getBlue());
+    assertEquals(255, layer.getPixel(169, 130).getRed());
+    assertEquals(127, layer.getPixel(199, 149).getGreen());
+    assertEquals(Collections.singleton("t"), layer.getImageNames());
+  }
+
+  @Test
+  public void testLayerKeepsModelNamesOfPlacedImages() throws FileNotFoundException {
+    CollageModelImpl ipm = new CollageModelImpl();
+    ipm.createNewProject(500, 300);
+    ipm.addLayer();
+    // images read from PPM files have no name of their own
+    ipm.load("./res/k.PPM", "first");
+    ipm.load("./res/k.PPM", "second");
+    ipm.addImageToLayer(0, "first", 0, 0);
+    ipm.addImageToLayer(0, "second", 250, 0);
+    assertArrayEquals(new String[] {"first", "second"},
+            ipm.getLayers().get(0).getImageNames().toArray());
+  }
+
+  @Test
+  public void testBlendFilterNeedsImageOnBottomLayer() throws FileNotFoundException {
+    CollageModelImpl ipm = new CollageModelImpl();
+    ipm.createNewProject(300, 200);
+    ipm.addLayer();
+    ipm.load("./res/k.PPM", "k");
+    try {
+      ipm.darkenMultiply("k", "d");
+      throw new AssertionError("expected an IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      assertEquals("Unable to find image on the bottom layer: k", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testDifferenceReadsBottomLayer() throws FileNotFoundException {
+    CollageModelImpl ipm = new CollageModelImpl();
+    ipm.createNewProject(300, 200);
+    ipm.addLayer();
+    ipm.addLayer();
+    ipm.load("./res/k.PPM", "k");
+    ipm.addImageToLayer(0, "k", 0, 0);
+    ipm.difference("k", "d");
+    // the image on the bottom layer is k itself, so every channel differs by 0
+    assertEquals(RasterImage.pack(0, 0, 0), ipm.getImage("d").getArgb(10, 10));
+  }
+
+  @Test
+  public void testPlaceOpaqueImageOnTiledLayer() throws FileNotFoundException {
+    CollageModelImpl ipm = new CollageModelImpl();
+    ipm.setCanvasBudget(4L * 500 * 500);
+    ipm.createNewProject(600, 500);
+    ipm.addLayer();
+    ipm.load("./res/k.PPM", "k");
+    Image k = ipm.getImage("k");
+    ipm.addImageToLayer(0, "k", 200, 400);
+    LayerImpl layer = ipm.getLayers().get(0);
+    for (int y = 400; y < 500; y += 3) {
+      for (int x = 200; x < 428; x += 7) {
+        assertEquals(k.getArgb(x - 200, y - 400), layer.getPixel(x, y).getColor().getRGB());
+      }
+    }
+    assertEquals(-1, layer.getPixel(199, 450).getColor().getRGB());
+    assertEquals(-1, layer.getPixel(428, 450).getColor().getRGB());
+  }
+
+  @Test
+  public void testPlaceMixedRows() {
+    LayerImpl layer = new LayerImpl(10, 4);
+    RasterImage img = new RasterImage("m", 3, 2, 255);
+    for (int x = 0; x < 3; x++) {
+      img.setArgb(x, 0, RasterImage.pack(10, 20, 30));
+      img.setArgb(x, 1, 0x00123456);
+    }
+    layer.placeImage("m", img, 8, 2);
+    assertEquals(RasterImage.pack(10, 20, 30), layer.getPixel(9, 2).getColor().getRGB());
+    assertEquals(-1, layer.getPixel(9, 3).getColor().getRGB());
+    assertEquals(-1, layer.getPixel(7, 2).getColor().getRGB());
+  }
+
+  @Test
+  public void testCompositeBlendsLayers() {
+    CollageModelImpl ipm = new CollageModelImpl();
+    ipm.createNewProject(200, 150);
+    ipm.addLayer();
+    ipm.addLayer();
+    RasterImage red = new RasterImage("red", 20, 10, 255);
+    RasterImage glass = new RasterImage("glass", 20, 10, 255);
+    Arrays.fill(red.getData(), RasterImage.pack(255, 0, 0));
+    Arrays.fill(glass.getData(), 0x800000FF);
+    ipm.getLayers().get(0).placeImage("red", red, 10, 10);
+    ipm.getLayers().get(1).placeImage("glass", glass, 20, 10);
+    Image composite = ipm.getComposite();
+    assertEquals(RasterImage.pack(255, 0, 0), composite.getArgb(15, 12));
+    assertEquals(RasterImage.pack(127, 0, 128), composite.getArgb(25, 12));
+    assertEquals(RasterImage.pack(127, 127, 255), composite.getArgb(35, 12));
+    assertEquals(-1, composite.getArgb(5, 5));
+  }
+
+  @Test
+  public void testCompositeOnlyRedrawsChangedArea() {
+    CollageModelImpl ipm = new CollageModelImpl();
+    ipm.createNewProject(300, 200);
+    ipm.addLayer();
+    ipm.addLayer();
+    WritableImage composite = (WritableImage) ipm.getComposite();
+    composite.setArgb(0, 0, RasterImage.pack(1, 2, 3));
+    RasterImage dot = new RasterImage("dot", 5, 5, 255);
+    Arrays.fill(dot.getData(), RasterImage.pack(0, 255, 0));
+    ipm.getLayers().get(1).placeImage("dot", dot, 100, 50);
+    assertSame(composite, ipm.getComposite());
+    assertEquals(RasterImage.pack(0, 255, 0), composite.getArgb(104, 54));
+    assertEquals(-1, composite.getArgb(105, 54));
+    // outside the changed area the cached pixels are not redrawn
+    assertEquals(RasterImage.pack(1, 2, 3), composite.getArgb(0, 0));
+    assertEquals(0, ipm.getLayers().get(1).takeDirty().size());
+  }
+
+  @Test
+  public void testActiveLayerCompositeMatchesFullStack() {
+    CollageModelImpl flat = new CollageModelImpl();
+    CollageModelImpl active = new CollageModelImpl();
+    // every pixel has a different translucent color, so rounding differences would show
+    RasterImage[] tints = new RasterImage[3];
+    for (int i = 0; i < tints.length; i++) {
+      tints[i] = new RasterImage("tint" + i, 60, 50, 255);
+      for (int p = 0; p < 60 * 50; p++) {
+        tints[i].getData()[p] = (40 + 50 * i + p % 37) << 24 | (p * 7 + i * 90) % 256 << 16
+                | (p * 13) % 256 << 8 | (p * 3 + i * 40) % 256;
+      }
+    }
+    for (CollageModelImpl ipm : new CollageModelImpl[] {flat, active}) {
+      ipm.createNewProject(140, 130);
+      for (int i = 0; i < 5; i++) {
+        ipm.addLayer();
+      }
+      ipm.getLayers().get(0).placeImage("tint0", tints[0], 5, 5);
+      ipm.getLayers().get(2).placeImage("tint1", tints[1], 8, 2);
+      ipm.getLayers().get(3).placeImage("tint2", tints[2], 3, 7);
+      ipm.getLayers().get(4).placeImage("tint0", tints[0], 10, 4);
+    }
+    active.setActiveLayer(1);
+    active.getComposite();
+    // edits to the active layer and to the layers below and above it
+    for (CollageModelImpl ipm : new CollageModelImpl[] {flat, active}) {
+      ipm.getLayers().get(1).placeImage("tint2", tints[2], 0, 0);
+      ipm.getLayers().get(0).placeImage("tint1", tints[1], 20, 15);
+      ipm.getLayers().get(3).placeImage("tint0", tints[0], 15, 12);
+    }
+    Image expected = flat.getComposite();
+    Image actual = active.getComposite();
+    // the layers above are flattened before rounding, so channels may differ by one
+    for (int y = 0; y < 130; y++) {
+      for (int x = 0; x < 140; x++) {
+        for (int shift = 0; shift < 32; shift += 8) {
+          assertEquals((expected.getArgb(x, y) >>> shift) & 0xFF,
+                  (actual.getArgb(x, y) >>> shift) & 0xFF, 1);
+        }
+      }
+    }
+    // with nothing above the active layer the composite is the same as the full stack
+    active.setActiveLayer(4);
+    flat.getLayers().get(2).invalidate();
+    active.getLayers().get(2).invalidate();
+    expected = flat.getComposite();
+    actual = active.getComposite();
+    for (int y = 0; y < 130; y++) {
+      for (int x = 0; x < 140; x++) {
+        assertEquals(expected.getArgb(x, y), actual.getArgb(x, y));
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSetActiveLayerOutOfRange() {
+    CollageModelImpl ipm = new CollageModelImpl();
+    ipm.createNewProject(110, 110);
+    ipm.addLayer();
+    ipm.setActiveLayer(1);
+  }
+
+  @Test
+  public void testLayerFilterAppliedWhenCompositing() {
+    CollageModelImpl ipm = new CollageModelImpl();
+    ipm.createNewProject(120, 110);
+    ipm.addLayer();
+    ipm.addLayer();
+    RasterImage dot = new RasterImage("dot", 4, 4, 255);
+    Arrays.fill(dot.getData(), RasterImage.pack(10, 20, 30));
+    ipm.getLayers().get(1).placeImage("dot", dot, 2, 2);
+    ipm.setFilter(1, "green-component");
+    Image composite = ipm.getComposite();
+    assertEquals(RasterImage.pack(0, 20, 0), composite.getArgb(3, 3));
+    // transparent parts of the layer stay transparent, showing the white layer underneath
+    assertEquals(-1, composite.getArgb(10, 10));
+    // the layer keeps its pixels, so removing the filter restores them
+    assertEquals(20, ipm.getLayers().get(1).getPixel(3, 3).getGreen());
+    assertEquals(10, ipm.getLayers().get(1).getPixel(3, 3).getRed());
+    ipm.setFilter(1, "normal");
+    assertSame(composite, ipm.getComposite());
+    assertEquals(RasterImage.pack(10, 20, 30), composite.getArgb(3, 3));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSetFilterMissingLayer() {
+    CollageModelImpl ipm = new CollageModelImpl();
+    ipm.createNewProject(120, 110);
+    ipm.addLayer();
+    ipm.setFilter(1, "red-component");
+  }
+
   @Test
   public void testGetImage() throws FileNotFoundException {
     CollageModel ipm = new CollageModelImpl();
@@ -118,8 +1088,10 @@ public class CollageTest {
     CollageModel ipm = new CollageModelImpl();
     ipm.load("./res/k.PPM", "g");
     ipm.getImage("g");
-    ipm.save("./res/test2.ppm", "g");
-    ipm.load("./res/test2.ppm", "t");
+    File saved = File.createTempFile("test2", ".ppm");
+    saved.deleteOnExit();
+    ipm.save(saved.getPath(), "g");
+    ipm.load(saved.getPath(), "t");
     Image t = ipm.getImage("t");
     assertEquals(47, t.getPixel(0, 0).getRed());
   }
@@ -395,7 +1367,9 @@ public class CollageTest {
 
   @Test
   public void testImageProcTextSave() throws IOException {
-    String s = "./res/test.ppm g";
+    File saved = File.createTempFile("test", ".ppm");
+    saved.deleteOnExit();
+    String s = saved.getPath() + " g";
     Readable ir = new StringReader(s);
     CollageModel ipm = new CollageModelImpl();
     ipm.load("./res/k.PPM", "g");
@@ -404,7 +1378,7 @@ public class CollageTest {
     CollageControllerImpl c = new CollageControllerImpl(ipm, ipv, ir);
     c.save();
     String output = log.toString();
-    assertEquals("g was saved as ./res/test.ppm\n", output);
+    assertEquals("g was saved as " + saved.getPath() + "\n", output);
   }
 
 